@@ -1,12 +1,17 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
+import com.hmdp.utils.IpWhitelistInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
 
 /**
  * MvcConfig
@@ -19,6 +24,15 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    RateLimitProperties rateLimitProperties;
+
+    @Value("${hmdp.admin.user-ids:}")
+    Set<Long> adminUserIds;
+
+    @Value("${hmdp.admin.metrics-allowed-ips:}")
+    Set<String> metricsAllowedIps;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //注册拦截器
@@ -31,7 +45,18 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/blog/hot",
                         "/user/code",
-                        "/user/login"
+                        "/user/login",
+                        "/admin/cache/metrics"
                 );
+        //限流拦截器在登录拦截器之后，按用户限流时可以获取到用户
+        registry.addInterceptor(new RateLimitInterceptor(stringRedisTemplate, rateLimitProperties))
+                .addPathPatterns("/voucher-order/**");
+        //管理接口只允许管理员访问
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/admin/**")
+                .excludePathPatterns("/admin/cache/metrics");
+        //指标中包含每张优惠券的对账差异，只允许白名单中的采集端访问
+        registry.addInterceptor(new IpWhitelistInterceptor(metricsAllowedIps))
+                .addPathPatterns("/admin/cache/metrics");
     }
 }
@@ -0,0 +1,55 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RateLimitProperties  限流规则配置 hmdp.rate-limit
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.rate-limit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * 规则名称 -> 规则，与 @RateLimit 的value对应
+     */
+    private Map<String, Rule> rules = new HashMap<>();
+
+    @Data
+    public static class Rule {
+        /**
+         * 单节点每秒允许的请求数，0表示不限制
+         */
+        private double nodePermitsPerSecond;
+
+        /**
+         * 单节点允许的突发请求数
+         */
+        private int nodeBurst;
+
+        /**
+         * 每个用户在窗口内允许的请求数(所有节点)，0表示不限制
+         */
+        private int userLimit;
+
+        /**
+         * 每个资源(如优惠券)在窗口内允许的请求数(所有节点)，0表示不限制
+         */
+        private int resourceLimit;
+
+        /**
+         * 滑动窗口时长(毫秒)
+         */
+        private long windowMillis = 1000;
+    }
+}
@@ -0,0 +1,88 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.SeckillStockReconciler;
+import com.hmdp.utils.ShopCacheWarmer;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存管理控制器，只允许管理员访问（AdminInterceptor）；/metrics 只允许白名单中的采集端访问（IpWhitelistInterceptor）
+ * </p>
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+
+    @Resource
+    private SeckillStockReconciler seckillStockReconciler;
+
+    /**
+     * 查询当前的热点key
+     * @return 热点key及窗口内估算的访问次数，按访问次数从高到低
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 缓存指标，Prometheus文本格式
+     * @return 按key前缀统计的命中、未命中、重建等次数，以及redis和数据库的耗时分布；秒杀库存对账结果
+     */
+    @GetMapping(value = "/metrics", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String metrics() {
+        return cacheMetrics.scrape() + seckillStockReconciler.scrape();
+    }
+
+    /**
+     * 手动触发商铺缓存预热
+     */
+    @PostMapping("/warm-up/shop")
+    public Result warmUpShop() {
+        if (!shopCacheWarmer.start()) {
+            return Result.fail("商铺缓存正在预热中！");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 查询商铺缓存预热进度
+     */
+    @GetMapping("/warm-up/shop")
+    public Result queryWarmUpProgress() {
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+    /**
+     * 手动触发秒杀库存对账
+     */
+    @PostMapping("/reconcile/seckill")
+    public Result reconcileSeckill() {
+        if (!seckillStockReconciler.start()) {
+            return Result.fail("秒杀库存正在对账中！");
+        }
+        return Result.ok();
+    }
+}
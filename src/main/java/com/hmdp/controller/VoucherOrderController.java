@@ -3,6 +3,8 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RateLimit;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -25,8 +27,18 @@ public class VoucherOrderController {
     @Resource
     IVoucherOrderService iVoucherOrderService;
 
+    @RateLimit("seckill")
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return iVoucherOrderService.secKillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单的处理状态，客户端下单后轮询该接口，不需要查询数据库
+     * @return QUEUED 等待写入数据库，PERSISTED 已写入数据库，FAILED 创建失败
+     */
+    @GetMapping("seckill/{id}/status")
+    public Result querySeckillStatus(@PathVariable("id") Long voucherId) {
+        return iVoucherOrderService.querySeckillStatus(voucherId);
+    }
 }
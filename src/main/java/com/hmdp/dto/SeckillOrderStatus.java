@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+
+/**
+ * SeckillOrderStatus  秒杀订单的处理状态
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+public enum SeckillOrderStatus {
+    /**
+     * 抢购成功，订单在消息队列中等待写入数据库
+     */
+    QUEUED,
+    /**
+     * 订单已写入数据库
+     */
+    PERSISTED,
+    /**
+     * 订单创建失败（数据库库存不足或多次处理失败）
+     */
+    FAILED
+}
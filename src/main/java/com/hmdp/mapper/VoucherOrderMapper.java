@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,26 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行插入订单，已存在的订单（主键或 用户+优惠券 重复）被忽略
+     * @param orders 订单
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
+
+    /**
+     * 指定的用户中已购买该优惠券的用户
+     */
+    List<Long> selectOrderedUserIds(@Param("voucherId") Long voucherId, @Param("userIds") Collection<Long> userIds);
+
+    /**
+     * 按订单id游标分页读取该优惠券的订单，只包含id和user_id
+     */
+    List<VoucherOrder> selectUsersAfter(@Param("voucherId") Long voucherId, @Param("lastId") long lastId,
+                                        @Param("limit") int limit);
+
+    /**
+     * (user_id, voucher_id) 唯一索引的个数，为0时 insertIgnoreBatch 无法保证一人一单
+     */
+    int countUserVoucherUniqueIndex();
 }
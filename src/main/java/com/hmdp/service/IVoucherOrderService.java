@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,6 +18,12 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result secKillVoucher(Long voucherId);
 
-    //从secKillVoucher业务逻辑中提出出来的事务方法
-    void createVoucherOrder(VoucherOrder voucherId);
+    //查询当前用户的秒杀订单处理状态
+    Result querySeckillStatus(Long voucherId);
+
+    //从secKillVoucher业务逻辑中提出出来的事务方法，返回订单是否存在（新建或之前已创建）
+    boolean createVoucherOrder(VoucherOrder voucherId);
+
+    //批量创建订单（消息队列消费者调用）
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
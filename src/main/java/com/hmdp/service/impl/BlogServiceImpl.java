@@ -15,8 +15,11 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.LocalCache;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -24,11 +27,15 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 /**
@@ -52,6 +59,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private LocalCache localCache;
+
     @Override
     public Result queryBlogById(Long id) {
         //1.查询blog
@@ -74,11 +84,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            queryBlogUser(blog);
-            isBlogLiked(blog);
-        });
+        // 批量查询用户和是否点赞
+        fillBlogs(records);
         return Result.ok(records);
     }
 
@@ -187,12 +194,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         String idsStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids)
                 .last("order by field(id," + idsStr + ")").list();
-        for (Blog blog : blogs) {
-            // 查询关联用户
-            queryBlogUser(blog);
-            // 查询是否点赞
-            isBlogLiked(blog);
-        }
+        // 批量查询关联用户和是否点赞
+        fillBlogs(blogs);
 
         // 封装并返回
         ScrollResult scrollResult = new ScrollResult();
@@ -202,6 +205,66 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(scrollResult);
     }
 
+    /**
+     * 批量填充笔记列表的作者信息和点赞状态，一页笔记的查询次数不随笔记数增长
+     * 1.作者去重后先查本地缓存，未命中的用一次 listByIds 查询并写入本地缓存
+     * 2.登录用户的点赞状态用一次pipeline批量 ZSCORE
+     */
+    private void fillBlogs(List<Blog> blogs) {
+        if (blogs == null || blogs.isEmpty()) {
+            return;
+        }
+        //1.作者信息
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toCollection(LinkedHashSet::new));
+        Map<Long, UserDTO> users = new HashMap<>(userIds.size() * 2);
+        List<Long> missed = new ArrayList<>();
+        for (Long userId : userIds) {
+            Object cached = localCache.get(CACHE_USER_KEY + userId);
+            if (cached == null) {
+                missed.add(userId);
+            } else if (cached != LocalCache.NULL_VALUE) {
+                users.put(userId, (UserDTO) cached);
+            }
+        }
+        if (!missed.isEmpty()) {
+            for (User user : userService.listByIds(missed)) {
+                UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+                users.put(userDTO.getId(), userDTO);
+                localCache.put(CACHE_USER_KEY + userDTO.getId(), userDTO);
+            }
+            // 已删除的用户缓存空值
+            for (Long userId : missed) {
+                if (!users.containsKey(userId)) {
+                    localCache.put(CACHE_USER_KEY + userId, null);
+                }
+            }
+        }
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+        //2.点赞状态
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            // 用户未登录，无需查询是否点赞
+            return;
+        }
+        String userId = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
     // 博客关联用户
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
@@ -2,12 +2,12 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.injector.methods.SelectList;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheSerializer;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -33,6 +33,9 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    CacheSerializer cacheSerializer;
+
     @Override
     public Result queryTypeList() {
         String key = CACHE_SHOP_TYPE_LIST_KEY;
@@ -40,7 +43,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
         String shopTypesJson = stringRedisTemplate.opsForValue().get(key);
         //2.存在，返回结果
         if (StrUtil.isNotBlank(shopTypesJson)) {
-            List<ShopType> shopTypes = JSONUtil.toList(JSONUtil.parseArray(shopTypesJson), ShopType.class);
+            List<ShopType> shopTypes = cacheSerializer.deserializeList(shopTypesJson, ShopType.class);
             return Result.ok(shopTypes);
         }
         //3.不存在，去数据库查询
@@ -51,7 +54,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
         }
 
         //5.存在，存入redis，并返回数据
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shopTypes));
+        stringRedisTemplate.opsForValue().set(key, cacheSerializer.serializeList(shopTypes, ShopType.class));
         return Result.ok(shopTypes);
 
     }
@@ -1,32 +1,41 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillOrderStatus;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillWindowCache;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 
+import static com.hmdp.utils.RedisConstants.SECKILL_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STATUS_TTL;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -51,132 +60,41 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     RedissonClient redissonClient;
 
+    @Resource
+    SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    SeckillStockSegments seckillStockSegments;
+
+    @Resource
+    SeckillWindowCache seckillWindowCache;
+
     //定义lua脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<List<Long>> SECKILL_SCRIPT;
     //使用静态代码块实现 lua脚本的初始化 这样就只需要加载一次 不用重复加载
     static{
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         // ClassPathResource() resource目录下的文件
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        // 脚本返回整数数组 {结果, 序列号}，lua的整数转换为Long
+        @SuppressWarnings("unchecked")
+        Class<List<Long>> resultType = (Class<List<Long>>) (Class<?>) List.class;
+        SECKILL_SCRIPT.setResultType(resultType);
     }
 
-    // 异步处理线程池
-    private ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-
     IVoucherOrderService currentProxy;
-    //在类初始化之后执行，因为当这个类初始化好了之后，随时都是有可能要执行的
-    @PostConstruct
-    void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-    }
 
-    private class VoucherOrderHandler implements Runnable {
-
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    // --------- BlockingQueue阻塞队列 --------
-                    //1.获取队列中的订单信息
-//                    VoucherOrder voucherOrder = orderTasks.take();
-                    //2.创建订单
-//                    handlerVoucherOrder(voucherOrder);
-
-                    // --------- redis 消息队列 --------
-                    String stream_name = "stream.orders";
-                    //1.获取消息队列中的订单信息 xreadgroup group g1 c1  count 1 block 2000 streams s1
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(stream_name, ReadOffset.lastConsumed()) //处理标记的下一条消息
-                            );
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有消息，继续下一次循环
-                        continue;
-                    }
-                    //3.解析订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> map = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(map, new VoucherOrder(), true);
-
-                    //4.创建订单
-                    createVoucherOrder(voucherOrder);
-
-                    //5.应答XACK消息（将处理完的消息移除消息队列）
-                    stringRedisTemplate.opsForStream().acknowledge(stream_name, "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("订单处理异常", e);
-                    //异常消息处理（服务器宕机,消息为被处理完标记为当前未处理的位置）
-                    handlerPendingList();
-                }
-            }
-        }
-
-        // 处理异常消息
-        private void handlerPendingList() {
-            while (true) {
-                try {
-                    String stream_name = "stream.orders";
-                    //1.获取消息队列中pendingList中的订单信息 xreadgroup group g1 c1  count 1 block 2000 streams s1
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(stream_name, ReadOffset.from("0"))  //处理标记的当前条消息
-                    );
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有消息，继续下一次循环
-                        continue;
-                    }
-                    //3.解析订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> map = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(map, new VoucherOrder(), true);
-
-                    //4.创建订单
-                    createVoucherOrder(voucherOrder);
-
-                    //5.应答XACK消息（将处理完的消息移除消息队列）
-                    stringRedisTemplate.opsForStream().acknowledge(stream_name, "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理pending订单异常", e);
-                    // 避免频繁处理
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException interruptedException) {
-                        interruptedException.printStackTrace();
-                    }
-                }
-            }
-        }
-
-        //此处出现线程安全问题几乎不可能，订单处理为单线程处理（此处只为严谨）
-        private void handlerVoucherOrder(VoucherOrder voucherOrder) {
-            //1.获取用户
-            Long userId = voucherOrder.getUserId();
-            // 2.创建锁对象
-            RLock redisLock = redissonClient.getLock("lock:order:" + userId);
-            // 3.尝试获取锁
-            boolean isLock = redisLock.tryLock();
-            // 4.判断是否获得锁成功
-            if (!isLock) {
-                // 获取锁失败，直接返回失败或者重试
-                log.error("不允许重复下单！");
-                return;
-            }
-            try {
-                //注意：由于是spring的事务是放在threadLocal中，此时的是多线程，事务会失效
-                currentProxy.createVoucherOrder(voucherOrder);
-            } finally {
-                // 释放锁
-                redisLock.unlock();
-            }
+    /**
+     * 一人一单依赖 (user_id, voucher_id) 唯一索引，已有数据库未执行 db/upgrade_uk_user_voucher.sql 时启动失败，
+     * 否则 INSERT IGNORE 会静默插入重复订单
+     */
+    @PostConstruct
+    void checkUniqueIndex() {
+        if (getBaseMapper().countUserVoucherUniqueIndex() == 0) {
+            throw new IllegalStateException("tb_voucher_order 缺少 (user_id, voucher_id) 唯一索引，请先执行 db/upgrade_uk_user_voucher.sql");
         }
     }
 
-
     // 阻塞队列 队列没消息是阻塞有消息才会执行
     private BlockingQueue<VoucherOrder> orderTasks =new  ArrayBlockingQueue<>(1024 * 1024);
 
@@ -184,16 +102,44 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Override
     public Result secKillVoucher(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
-        Long orderId = redisIdWorker.next("order");
-        //1.执行lua脚本
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), orderId.toString(), orderId.toString());
-        int r = result.intValue();
-        //2.判断结果是否为0
+        //1.按本地缓存的秒杀时间判断，未开始或已结束直接返回，不访问redis
+        long nowMillis = System.currentTimeMillis();
+        int window = seckillWindowCache.check(voucherId, nowMillis);
+        if (window != SeckillWindowCache.OPEN) {
+            return windowFail(window);
+        }
+        //1.1.本节点已知售罄，直接返回，不再访问redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        //2.分段库存
+        if (seckillStockSegments.enabled()) {
+            return secKillVoucherBySegment(voucherId, userId);
+        }
+        //3.执行lua脚本，校验通过后才在脚本中生成订单id的序列号；本地id模式直接传入订单id
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = redisIdWorker.timestamp(now);
+        Long localId = redisIdWorker.local() ? redisIdWorker.next("order") : null;
+        List<String> args = new ArrayList<>(Arrays.asList(
+                voucherId.toString(), userId.toString(), redisIdWorker.countKey("order", now), String.valueOf(timestamp),
+                String.valueOf(nowMillis), String.valueOf(TimeUnit.MINUTES.toSeconds(SECKILL_STATUS_TTL))));
+        if (localId != null) {
+            args.add(localId.toString());
+        }
+        List<Long> result = stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(), args.toArray());
+        int r = result.get(0).intValue();
+        //4.判断结果是否为0
+        if (r == 1) {
+            soldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
+        if (r == SeckillWindowCache.NOT_STARTED || r == SeckillWindowCache.ENDED) {
+            return windowFail(r);
+        }
         if (r != 0) {
-            return Result.fail(result == 1 ? "库存不足" : "不能重复下单");
+            return Result.fail("不能重复下单");
         }
+        long orderId = localId != null ? localId : redisIdWorker.compose(timestamp, result.get(1));
 //------------------------ BlockingQueue阻塞队列 ---------------------
         //3.1.创建优惠券订单
 //        VoucherOrder voucherOrder = new VoucherOrder();
@@ -213,18 +159,69 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(orderId);
     }
 
+    @Override
+    public Result querySeckillStatus(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        String status = stringRedisTemplate.opsForValue().get(SECKILL_STATUS_KEY + voucherId + ":" + userId);
+        if (status == null) {
+            return Result.fail("未找到秒杀订单！");
+        }
+        return Result.ok(status);
+    }
+
+    private Result windowFail(int window) {
+        if (window == SeckillWindowCache.NOT_FOUND) {
+            return Result.fail("秒杀券不存在！");
+        }
+        return Result.fail(window == SeckillWindowCache.NOT_STARTED ? "秒杀尚未开始！" : "秒杀已经结束！");
+    }
+
+    // 分段库存秒杀：抢购成功后再生成订单id，写入消息队列
+    private Result secKillVoucherBySegment(Long voucherId, Long userId) {
+        //1.抢购
+        int segment = seckillStockSegments.admit(voucherId, userId);
+        if (segment == SeckillStockSegments.SOLD_OUT) {
+            soldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
+        if (segment == SeckillStockSegments.DUPLICATE) {
+            return Result.fail("不能重复下单");
+        }
+        if (segment < 0) {
+            return windowFail(-segment);
+        }
+        //2.生成订单id，写入订单状态和消息队列 xadd stream.orders * voucherId userId id
+        long orderId;
+        String statusKey = SECKILL_STATUS_KEY + voucherId + ":" + userId;
+        try {
+            orderId = redisIdWorker.next("order");
+            stringRedisTemplate.opsForValue().set(statusKey, SeckillOrderStatus.QUEUED.name(), SECKILL_STATUS_TTL, TimeUnit.MINUTES);
+            Map<String, String> order = new HashMap<>(4);
+            order.put("voucherId", voucherId.toString());
+            order.put("userId", userId.toString());
+            order.put("id", String.valueOf(orderId));
+            stringRedisTemplate.opsForStream().add(STREAM_ORDERS_KEY, order);
+        } catch (RuntimeException e) {
+            //3.写入失败，还回库存
+            seckillStockSegments.rollback(voucherId, userId, segment);
+            stringRedisTemplate.delete(statusKey);
+            throw e;
+        }
+        return Result.ok(orderId);
+    }
+
     //数据库创建订单
+    @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        //5.1.用户id
-        Long userId = voucherOrder.getUserId();
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        if (count > 0) {
-            //用户抢购过
-            log.error("用户抢购过");
-            return;
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
+        //1.插入订单，(user_id, voucher_id)唯一索引保证一人一单，已存在时忽略
+        int inserted = getBaseMapper().insertIgnoreBatch(Collections.singletonList(voucherOrder));
+        if (inserted == 0) {
+            //用户抢购过（INSERT IGNORE 同时会忽略截断等其他错误，记录订单便于排查）
+            log.error("用户抢购过，订单未插入：{}", voucherOrder);
+            return true;
         }
-        //6.扣减库存
+        //2.扣减库存
         boolean success = seckillVoucherService.update()
                 .setSql("stock = stock - 1")
                 .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
@@ -232,9 +229,43 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
         if (!success) {
             log.error("库存不足");
-            return;
+            //回滚插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return false;
+        }
+        return true;
+    }
+
+    //批量创建订单：每个优惠券一条多行插入，按实际插入的行数一次扣减库存
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1.按优惠券分组
+        Map<Long, List<VoucherOrder>> groups = new HashMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            groups.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+        }
+        for (Map.Entry<Long, List<VoucherOrder>> entry : groups.entrySet()) {
+            //2.多行插入，重复的订单（消息重复投递、同一用户）被忽略
+            int inserted = getBaseMapper().insertIgnoreBatch(entry.getValue());
+            if (inserted != entry.getValue().size()) {
+                //重复投递或同一用户的订单；INSERT IGNORE 同时会忽略截断等其他错误，记录下来便于排查
+                log.warn("部分订单未插入，voucherId：{}，订单数：{}，插入数：{}",
+                        entry.getKey(), entry.getValue().size(), inserted);
+            }
+            if (inserted == 0) {
+                continue;
+            }
+            //3.按实际插入的行数扣减库存
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", entry.getKey()).ge("stock", inserted)
+                    .update();
+            if (!success) {
+                //库存不足以扣减整批，回滚后由调用方逐条处理
+                throw new IllegalStateException("库存不足，voucherId：" + entry.getKey());
+            }
         }
-        save(voucherOrder);
     }
 
 
@@ -7,6 +7,8 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillWindowCache;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -33,6 +35,12 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    SeckillStockSegments seckillStockSegments;
+
+    @Resource
+    SeckillWindowCache seckillWindowCache;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -54,7 +62,14 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        //存入redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), seckillVoucher.getStock().toString());
+        //存入redis中，开启分段库存时拆分到各个分段
+        //秒杀时间先于库存写入，lua脚本看到库存时一定能看到时间
+        seckillWindowCache.save(voucher.getId(), voucher.getBeginTime(), voucher.getEndTime());
+        if (seckillStockSegments.enabled()) {
+            seckillStockSegments.init(voucher.getId(), seckillVoucher.getStock(),
+                    voucher.getBeginTime(), voucher.getEndTime());
+        } else {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), seckillVoucher.getStock().toString());
+        }
     }
 }
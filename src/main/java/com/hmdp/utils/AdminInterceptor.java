@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * AdminInterceptor  管理接口的权限拦截器
+ *
+ * 1.在登录拦截器之后执行，只允许 hmdp.admin.user-ids 中配置的用户访问
+ * 2.未配置管理员时所有管理接口都不可用
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private static final String FORBIDDEN = JSONUtil.toJsonStr(Result.fail("没有权限！"));
+
+    private final Set<Long> adminUserIds;
+
+    public AdminInterceptor(Set<Long> adminUserIds) {
+        this.adminUserIds = adminUserIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user != null && adminUserIds.contains(user.getId())) {
+            return true;
+        }
+        response.setStatus(HttpStatus.FORBIDDEN.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(FORBIDDEN);
+        return false;
+    }
+}
@@ -1,26 +1,39 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.HOT_KEY_PIN_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.MUTEX_MAX_RETRIES;
+import static com.hmdp.utils.RedisConstants.MUTEX_RETRY_INTERVAL;
+import static com.hmdp.utils.RedisConstants.REFRESH_AHEAD_TIME;
 
 /**
  * CacheClient
  *
+ * 两级缓存：本地LocalCache(L1) + redis(L2)
+ * 先查L1，未命中再按各自的策略(缓存空值 / 互斥锁 / 逻辑过期)查询redis和数据库
+ *
  * @author ZhengKai
  * @date 2023/3/26
  */
@@ -29,175 +42,554 @@ import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final LocalCache localCache;
+
+    private final CacheInvalidationBus invalidationBus;
+
+    private final CacheSerializer serializer;
+
+    private final CacheRefresher cacheRefresher;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheMetrics metrics;
+
+    private final LockFacade lockFacade;
+
+    // key前缀 -> 布隆过滤器(判断id是否可能存在)
+    private final Map<String, Predicate<Object>> filters = new ConcurrentHashMap<>();
+
+    // 合并同一节点相同key的并发加载
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // 固定在本地缓存的热点key -> 根据redis中的值重新固定，热点窗口每次滑动时执行
+    private final Map<String, Consumer<String>> pinRefreshers = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCache localCache,
+                       CacheInvalidationBus invalidationBus, CacheSerializer serializer,
+                       CacheRefresher cacheRefresher, HotKeyDetector hotKeyDetector,
+                       CacheMetrics metrics, LockFacade lockFacade) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.invalidationBus = invalidationBus;
+        this.serializer = serializer;
+        this.cacheRefresher = cacheRefresher;
+        this.hotKeyDetector = hotKeyDetector;
+        this.metrics = metrics;
+        this.lockFacade = lockFacade;
+        hotKeyDetector.addRotateListener(this::refreshPins);
     }
 
-    //创建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR =
-            Executors.newFixedThreadPool(10);
-
-    //将对象转为json，存入redis设置TTL
+    //将对象序列化(二进制或json)，存入redis设置TTL
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        stringRedisTemplate.opsForValue().set(key, serializer.serialize(value), time, unit);
     }
 
-    //将对象和逻辑过期时间转为json存入redis
+    //将对象和逻辑过期时间序列化存入redis
     public void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        long expireTime = System.currentTimeMillis() + unit.toMillis(time);
+        stringRedisTemplate.opsForValue().set(key, serializer.serializeWithExpire(value, expireTime));
+    }
+
+    //批量写入逻辑过期数据（pipeline），过期时间加随机值，避免同时过期
+    public void setBatchWithLogicExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, String> toWrite = new HashMap<>(values.size() * 2);
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            long expireTime = now + unit.toMillis(time + RandomUtil.randomInt(1, 5));
+            toWrite.put(entry.getKey(), serializer.serializeWithExpire(entry.getValue(), expireTime));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map.Entry<String, String> entry : toWrite.entrySet()) {
+                conn.set(entry.getKey(), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    //缓存空值，防止缓存穿透
+    private void setNull(String key) {
+        stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+        localCache.put(key, null);
+    }
+
+    //注册某个key前缀的布隆过滤器，查询前先判断id是否存在
+    public void registerFilter(String keyPrefix, Predicate<Object> filter) {
+        filters.put(keyPrefix, filter);
+    }
+
+    //布隆过滤器判断id一定不存在
+    private boolean notExists(String keyPrefix, Object id) {
+        Predicate<Object> filter = filters.get(keyPrefix);
+        return filter != null && !filter.test(id);
+    }
+
+    //删除缓存（redis和本地缓存），并通知其他节点删除本地缓存
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+        invalidationBus.publish(key);
     }
 
     //存“”解决缓存穿透解决
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
-        String key =  keyPrefix + id;
-        //1.在redis中查询数据
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2.存在，返回数据
-        if (StrUtil.isNotBlank(json)) {
-            R r = JSONUtil.toBean(json, type);
-            return r;
-        }
-
-        //不存在有两种情况 null “”
-        if (json != null) {
-            //json为“”
+        //布隆过滤器判断不存在，直接返回
+        if (notExists(keyPrefix, id)) {
             return null;
         }
-
-        //3.到数据库中查询数据
-        R r = dbFallback.apply(id);
-        //4.不存在,返回错误
-        if (r == null) {
-            //将不存在的key以空值存入redis，并设置TTL
-            this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+        String key =  keyPrefix + id;
+        //记录访问，用于探测热点key
+        hotKeyDetector.record(key);
+        //0.先查本地缓存
+        Object local = localCache.get(key);
+        if (local == LocalCache.NULL_VALUE) {
+            metrics.record(keyPrefix, CacheMetrics.Event.NULL_HIT);
             return null;
         }
-        //5.存在返回数据，并将数存入redis中(将TTL加上随机数，避免缓存雪崩)
-        this.set(key, r, time + RandomUtil.randomInt(1,5), unit);
-        return r;
+        if (type.isInstance(local)) {
+            metrics.record(keyPrefix, CacheMetrics.Event.HIT_LOCAL);
+            return type.cast(local);
+        }
+        //1.在redis中查询数据
+        Object cached = getFromRedis(keyPrefix, key, type);
+        //2.命中，返回数据（“”表示数据库中也不存在）
+        if (cached != null) {
+            return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
+        }
+
+        //3.到数据库中查询数据，存入缓存
+        return loadAndSet(keyPrefix, key, id, dbFallback, time, unit);
     }
 
 
     public <R, ID> R queryWithLogicExpire(
             String keyPrefix, String lockPrefix,ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        //布隆过滤器判断不存在，直接返回
+        if (notExists(keyPrefix, id)) {
+            return null;
+        }
         String key =  keyPrefix + id;
+        //记录访问，用于探测热点key
+        hotKeyDetector.record(key);
+        //0.先查本地缓存(本地缓存中的数据都是逻辑上未过期的)
+        Object local = localCache.get(key);
+        if (type.isInstance(local)) {
+            metrics.record(keyPrefix, CacheMetrics.Event.HIT_LOCAL);
+            cacheRefresher.touch(key);
+            return type.cast(local);
+        }
         //1.在redis中查询数据
-        String json = stringRedisTemplate.opsForValue().get(key);
+        String json = redisGet(keyPrefix, key);
         //2.不存在，返回null
         if (StrUtil.isBlank(json)) {
+            metrics.record(keyPrefix, CacheMetrics.Event.MISS);
             return null;
         }
 
         //3.判断逻辑时间是否过期
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        //逻辑过期时间
-        LocalDateTime shopExpireTime = redisData.getExpireTime();
+        CacheSerializer.Entry<R> entry = serializer.deserializeWithExpire(json, type);
+        R r = entry.getData();
+        String lockKey = lockPrefix + id;
         //过期时间是否在当前时间之后
-        if (shopExpireTime.isAfter(LocalDateTime.now())) {
-            //3.1没过期
+        if (!entry.isExpired()) {
+            metrics.record(keyPrefix, CacheMetrics.Event.HIT_REDIS);
+            //3.1没过期 存入本地缓存，本地过期时间不超过逻辑过期时间
+            long remaining = entry.getExpireTime() - System.currentTimeMillis();
+            localCache.put(key, r, remaining);
+            pinIfHot(key, r, entry.getExpireTime(), type);
+            //记录访问，热点key会在过期前提前重建
+            cacheRefresher.track(key, entry.getExpireTime(),
+                    () -> rebuildWithLogicExpire(keyPrefix, key, lockKey, id, type, dbFallback, time, unit));
             return r;
         }
 
         //3.2逻辑时间过期
-        //4.实现缓存重构
-        //4.1.获取互斥锁
-        String lockKey = lockPrefix + id;
-        boolean isLock = tryLock(lockKey);
-        //4.2.判断获取锁是否成功
-        if (isLock) {
-            //doubleCheck 双重检查
-            try {
-                json = stringRedisTemplate.opsForValue().get(key);
-                if (!StrUtil.isBlank(json)) {
-                    RedisData newRedisData = JSONUtil.toBean(json, RedisData.class);
-                    LocalDateTime newExpireTime = newRedisData.getExpireTime();
-                    if(newExpireTime.isAfter(LocalDateTime.now())) {
-                        R r1 = JSONUtil.toBean((JSONObject) newRedisData.getData(), type);
-                        return r1;
-                    }
+        metrics.record(keyPrefix, CacheMetrics.Event.STALE);
+        //4.提交重建任务（同一个key只提交一次，在有界线程池中获取互斥锁并重建）
+        cacheRefresher.submit(key, () -> rebuildWithLogicExpire(keyPrefix, key, lockKey, id, type, dbFallback, time, unit));
+        //5.返回过期的商品信息
+        return r;
+    }
+
+    // 逻辑过期缓存重建，在重建线程池中执行
+    private <R, ID> void rebuildWithLogicExpire(String keyPrefix,
+            String key, String lockKey, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        //1.获取互斥锁，获取失败说明其他线程或节点正在重建
+        ILock lock = getLock(lockKey);
+        if (!tryLock(keyPrefix, lock)) {
+            return;
+        }
+        try {
+            //2.doubleCheck 其他节点可能已经重建（不在提前刷新的时间范围内）
+            String json = redisGet(keyPrefix, key);
+            if (StrUtil.isNotBlank(json)) {
+                CacheSerializer.Entry<R> entry = serializer.deserializeWithExpire(json, type);
+                if (entry.getExpireTime() - System.currentTimeMillis() > REFRESH_AHEAD_TIME) {
+                    cacheRefresher.refreshed(key, entry.getExpireTime());
+                    return;
                 }
-                //4.3.使用线程池，获取线程创建任务
-                CACHE_REBUILD_EXECUTOR.submit(() -> {
-                    try {
-                        //逻辑时间 固定时长 + 随机时长
-                        R newR = dbFallback.apply(id);
-                        this.setWithLogicExpire(key, newR, time + RandomUtil.randomInt(1,5), unit);
-                    } catch (Exception e) {
-                        throw new RuntimeException();
-                    } finally {
-                        unLock(lockKey);
-                    }
-                });
+            }
+            //3.查询数据库，逻辑时间 固定时长 + 随机时长
+            R newR = loadFromDb(keyPrefix, id, dbFallback);
+            long now = System.currentTimeMillis();
+            long expireTime = now + unit.toMillis(time + RandomUtil.randomInt(1, 5));
+            stringRedisTemplate.opsForValue().set(key, serializer.serializeWithExpire(newR, expireTime));
+            localCache.put(key, newR, expireTime - now);
+            cacheRefresher.refreshed(key, expireTime);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批量查询（逻辑过期）
+     * 1.本地缓存命中的直接返回（包括空值）
+     * 2.其余的key使用一次MGET查询redis，过期的返回旧数据并提交重建任务，热点key固定在本地缓存
+     * 3.redis中不存在的，使用一次 in 查询数据库，再用一次pipeline批量写入redis；
+     *   数据库中也不存在的id在同一个pipeline中缓存空值，防止缓存穿透
+     * @param dbBatchFallback 根据id集合批量查询数据库
+     * @param idGetter 获取数据的id
+     * @return 按ids的顺序返回，不存在的id不返回
+     */
+    public <R, ID> List<R> queryBatch(
+            String keyPrefix, String lockPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, List<R>> dbBatchFallback, Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        Map<String, R> found = new HashMap<>(ids.size());
+        List<String> keys = new ArrayList<>(ids.size());
+        List<String> redisKeys = new ArrayList<>(ids.size());
+        Map<String, ID> keyToId = new HashMap<>(ids.size());
+        //1.查询本地缓存
+        for (ID id : ids) {
+            //布隆过滤器判断不存在
+            if (notExists(keyPrefix, id)) {
+                continue;
+            }
+            String key = keyPrefix + id;
+            if (keyToId.put(key, id) != null) {
+                //重复的id
+                continue;
+            }
+            keys.add(key);
+            hotKeyDetector.record(key);
+            Object local = localCache.get(key);
+            if (local == LocalCache.NULL_VALUE) {
+                metrics.record(keyPrefix, CacheMetrics.Event.NULL_HIT);
+            } else if (type.isInstance(local)) {
+                metrics.record(keyPrefix, CacheMetrics.Event.HIT_LOCAL);
+                cacheRefresher.touch(key);
+                found.put(key, type.cast(local));
+            } else {
+                redisKeys.add(key);
+            }
+        }
+
+        //2.MGET 批量查询redis
+        List<ID> missIds = new ArrayList<>();
+        if (!redisKeys.isEmpty()) {
+            Function<ID, R> dbFallback = id -> {
+                List<R> list = dbBatchFallback.apply(Collections.singletonList(id));
+                return list == null || list.isEmpty() ? null : list.get(0);
+            };
+            long begin = System.nanoTime();
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(redisKeys);
+            metrics.recordRedis(keyPrefix, System.nanoTime() - begin);
+            for (int i = 0; i < redisKeys.size(); i++) {
+                String key = redisKeys.get(i);
+                ID id = keyToId.get(key);
+                String json = values == null ? null : values.get(i);
+                if (json == null) {
+                    metrics.record(keyPrefix, CacheMetrics.Event.MISS);
+                    missIds.add(id);
+                    continue;
+                }
+                //缓存的空值
+                if (StrUtil.isBlank(json)) {
+                    metrics.record(keyPrefix, CacheMetrics.Event.NULL_HIT);
+                    localCache.put(key, null);
+                    continue;
+                }
+                CacheSerializer.Entry<R> entry = serializer.deserializeWithExpire(json, type);
+                if (entry.getData() != null) {
+                    found.put(key, entry.getData());
+                }
+                String lockKey = lockPrefix + id;
+                if (entry.isExpired()) {
+                    //过期，提交重建任务，返回旧数据
+                    metrics.record(keyPrefix, CacheMetrics.Event.STALE);
+                    cacheRefresher.submit(key,
+                            () -> rebuildWithLogicExpire(keyPrefix, key, lockKey, id, type, dbFallback, time, unit));
+                } else {
+                    metrics.record(keyPrefix, CacheMetrics.Event.HIT_REDIS);
+                    localCache.put(key, entry.getData(), entry.getExpireTime() - System.currentTimeMillis());
+                    pinIfHot(key, entry.getData(), entry.getExpireTime(), type);
+                    cacheRefresher.track(key, entry.getExpireTime(),
+                            () -> rebuildWithLogicExpire(keyPrefix, key, lockKey, id, type, dbFallback, time, unit));
+                }
+            }
+        }
+
+        //3.一次查询数据库，pipeline批量写入redis
+        if (!missIds.isEmpty()) {
+            metrics.record(keyPrefix, CacheMetrics.Event.REBUILD_STARTED);
+            long begin = System.nanoTime();
+            List<R> loaded;
+            try {
+                loaded = dbBatchFallback.apply(missIds);
+            } catch (RuntimeException e) {
+                metrics.record(keyPrefix, CacheMetrics.Event.REBUILD_FAILED);
+                throw e;
             } finally {
-                unLock(lockKey);
+                metrics.recordDb(keyPrefix, System.nanoTime() - begin);
+            }
+            long now = System.currentTimeMillis();
+            Map<String, String> toWrite = new HashMap<>(missIds.size() * 2);
+            if (loaded != null) {
+                for (R r : loaded) {
+                    String key = keyPrefix + idGetter.apply(r);
+                    //逻辑时间 固定时长 + 随机时长
+                    long expireTime = now + unit.toMillis(time + RandomUtil.randomInt(1, 5));
+                    toWrite.put(key, serializer.serializeWithExpire(r, expireTime));
+                    localCache.put(key, r, expireTime - now);
+                    pinIfHot(key, r, expireTime, type);
+                    found.put(key, r);
+                }
+            }
+            //数据库中不存在的id
+            List<String> nullKeys = new ArrayList<>();
+            for (ID id : missIds) {
+                String key = keyPrefix + id;
+                if (!toWrite.containsKey(key)) {
+                    nullKeys.add(key);
+                    localCache.put(key, null);
+                }
             }
+            long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Map.Entry<String, String> entry : toWrite.entrySet()) {
+                    conn.set(entry.getKey(), entry.getValue());
+                }
+                for (String key : nullKeys) {
+                    conn.setEx(key, nullSeconds, "");
+                }
+                return null;
+            });
         }
-        //4.4.返回过期的商品信息
-        return r;
+
+        //4.按请求的顺序返回
+        List<R> result = new ArrayList<>(found.size());
+        for (String key : keys) {
+            R r = found.get(key);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
     }
 
-    private <R, ID> R queryWithMutex(
+    /**
+     * 互斥锁解决缓存击穿
+     * 同一节点内相同key的并发未命中通过SingleFlight合并，只有一个线程去获取redis锁、查询数据库，
+     * 其余线程等待该线程的结果，不再各自sleep、递归重试
+     */
+    public <R, ID> R queryWithMutex(
             String keyPrefix, String lockPrefix ,ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        //布隆过滤器判断不存在，直接返回
+        if (notExists(keyPrefix, id)) {
+            return null;
+        }
         String key =  keyPrefix + id;
+        //记录访问，用于探测热点key
+        hotKeyDetector.record(key);
+        //0.先查本地缓存
+        Object local = localCache.get(key);
+        if (local == LocalCache.NULL_VALUE) {
+            metrics.record(keyPrefix, CacheMetrics.Event.NULL_HIT);
+            return null;
+        }
+        if (type.isInstance(local)) {
+            metrics.record(keyPrefix, CacheMetrics.Event.HIT_LOCAL);
+            return type.cast(local);
+        }
         //1.在redis中查询数据
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2.存在，返回数据
+        Object cached = getFromRedis(keyPrefix, key, type);
+        //2.命中，返回数据（“”表示数据库中也不存在）
+        if (cached != null) {
+            return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
+        }
+
+        //3.实现缓存重构（同一节点同一个key只有一个线程执行）
+        return singleFlight.execute(key, () -> loadWithMutex(keyPrefix, key, lockPrefix + id, id, type, dbFallback, time, unit));
+    }
+
+    private <R, ID> R loadWithMutex(String keyPrefix,
+            String key, String lockKey, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        ILock lock = getLock(lockKey);
+        for (int i = 0; i < MUTEX_MAX_RETRIES; i++) {
+            //3.1.获取互斥锁
+            boolean isLock = tryLock(keyPrefix, lock);
+            if (isLock) {
+                try {
+                    //3.2.doubleCheck 其他节点可能已经重建了缓存
+                    Object cached = getFromRedis(keyPrefix, key, type);
+                    if (cached != null) {
+                        return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
+                    }
+                    //3.3.获取成功，根据id去数据库查询
+                    return loadAndSet(keyPrefix, key, id, dbFallback, time, unit);
+                } finally {
+                    //3.4.释放互斥锁
+                    lock.unlock();
+                }
+            }
+            //3.5.获取失败，说明其他节点正在重建，稍后重新查询redis
+            try {
+                Thread.sleep(MUTEX_RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            Object cached = getFromRedis(keyPrefix, key, type);
+            if (cached != null) {
+                return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
+            }
+        }
+        //4.等待超时(持有锁的节点可能宕机)，直接查询数据库，不写缓存
+        log.warn("等待缓存重建超时，直接查询数据库，key：{}", key);
+        return loadFromDb(keyPrefix, id, dbFallback);
+    }
+
+    // 查询数据库并写入缓存
+    private <R, ID> R loadAndSet(String keyPrefix, String key, ID id, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        R r = loadFromDb(keyPrefix, id, dbFallback);
+        //不存在,返回错误
+        if (r == null) {
+            //将不存在的key以空值存入redis，并设置TTL
+            setNull(key);
+            return null;
+        }
+        //存在返回数据，并将数存入redis中(将TTL加上随机数，避免缓存雪崩)
+        this.set(key, r, time + RandomUtil.randomInt(1,5), unit);
+        localCache.put(key, r);
+        return r;
+    }
+
+    /**
+     * 查询redis，命中时同时写入本地缓存
+     * @return 未命中返回null，命中空值返回 LocalCache.NULL_VALUE
+     */
+    private Object getFromRedis(String keyPrefix, String key, Class<?> type) {
+        String json = redisGet(keyPrefix, key);
         if (StrUtil.isNotBlank(json)) {
-            R r = JSONUtil.toBean(json, type);
+            metrics.record(keyPrefix, CacheMetrics.Event.HIT_REDIS);
+            Object r = serializer.deserialize(json, type);
+            localCache.put(key, r);
+            pinIfHot(key, r, type);
             return r;
         }
-
         //不存在有两种情况 null “”
         if (json != null) {
-            //shopJson为“”
-            return null;
+            metrics.record(keyPrefix, CacheMetrics.Event.NULL_HIT);
+            localCache.put(key, null);
+            return LocalCache.NULL_VALUE;
+        }
+        metrics.record(keyPrefix, CacheMetrics.Event.MISS);
+        return null;
+    }
+
+    //热点key固定在本地缓存（缓存空值 / 互斥锁方式的数据）
+    private void pinIfHot(String key, Object r, Class<?> type) {
+        if (!hotKeyDetector.isHot(key)) {
+            return;
         }
+        localCache.pin(key, r, HOT_KEY_PIN_TTL);
+        pinRefreshers.putIfAbsent(key, json -> {
+            if (StrUtil.isBlank(json)) {
+                localCache.invalidate(key);
+                return;
+            }
+            localCache.pin(key, serializer.deserialize(json, type), HOT_KEY_PIN_TTL);
+        });
+    }
 
-        //3.实现缓存重构
-        //3.1.获取互斥锁
-        R r = null;
-        try {
-            boolean isLock = tryLock(lockPrefix + id);
-            //3.2.判断是否获取成功
-            if (!isLock) {
-                //3.3.获取失败
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, lockPrefix, id, type, dbFallback, time, unit);
-            }
-            //3.获取成功，根据id去数据库查询
-            r = dbFallback.apply(id);
-            //4.不存在,返回错误
-            if (r == null) {
-                //将不存在的key以空值存入redis，并设置TTL
-                this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
+    //热点key固定在本地缓存（逻辑过期方式的数据），固定时长不超过逻辑过期时间
+    private void pinIfHot(String key, Object r, long expireTime, Class<?> type) {
+        if (!hotKeyDetector.isHot(key)) {
+            return;
+        }
+        localCache.pin(key, r, Math.min(expireTime - System.currentTimeMillis(), HOT_KEY_PIN_TTL));
+        pinRefreshers.putIfAbsent(key, json -> {
+            if (StrUtil.isBlank(json)) {
+                localCache.invalidate(key);
+                return;
             }
-            //5.存在返回数据，并将数存入redis中(将TTL加上随机数，避免缓存雪崩)
-            this.set(key, r, time + RandomUtil.randomInt(1,5), unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException();
+            CacheSerializer.Entry<?> entry = serializer.deserializeWithExpire(json, type);
+            //已逻辑过期的不再续期，由查询触发重建
+            localCache.pin(key, entry.getData(),
+                    Math.min(entry.getExpireTime() - System.currentTimeMillis(), HOT_KEY_PIN_TTL));
+        });
+    }
+
+    //热点窗口滑动后，一次MGET重新读取仍是热点的固定key并续期；不再是热点的不续期，固定到期后自然移除
+    private void refreshPins(Set<String> hotKeys) {
+        pinRefreshers.keySet().retainAll(hotKeys);
+        if (pinRefreshers.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(pinRefreshers.keySet());
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (values == null) {
+            return;
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            Consumer<String> refresher = pinRefreshers.get(keys.get(i));
+            if (refresher != null) {
+                refresher.accept(values.get(i));
+            }
+        }
+    }
+
+    // 查询redis，记录耗时
+    private String redisGet(String keyPrefix, String key) {
+        long begin = System.nanoTime();
+        try {
+            return stringRedisTemplate.opsForValue().get(key);
         } finally {
-            //6.释放互斥锁
-            unLock(key);
+            metrics.recordRedis(keyPrefix, System.nanoTime() - begin);
         }
-        return r;
     }
 
-    //获取互斥锁
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        //自动拆包会出现空指针问题
-        return BooleanUtil.isTrue(flag);
+    // 查询数据库，记录耗时和失败次数
+    private <R, ID> R loadFromDb(String keyPrefix, ID id, Function<ID,R> dbFallback) {
+        metrics.record(keyPrefix, CacheMetrics.Event.REBUILD_STARTED);
+        long begin = System.nanoTime();
+        try {
+            return dbFallback.apply(id);
+        } catch (RuntimeException e) {
+            metrics.record(keyPrefix, CacheMetrics.Event.REBUILD_FAILED);
+            throw e;
+        } finally {
+            metrics.recordDb(keyPrefix, System.nanoTime() - begin);
+        }
     }
 
-    //释放锁
-    private void unLock(String key) {
-        stringRedisTemplate.delete(key);
+    //互斥锁通过 LockFacade 获取，同一节点的竞争在本地锁上完成，lockKey 已包含 lock: 前缀
+    private ILock getLock(String lockKey) {
+        return lockFacade.getLock(StrUtil.removePrefix(lockKey, SimpleRedisLock.lock_prefix));
+    }
+
+    //获取互斥锁
+    private boolean tryLock(String keyPrefix, ILock lock) {
+        if (lock.tryLock(LOCK_SHOP_TTL)) {
+            return true;
+        }
+        metrics.record(keyPrefix, CacheMetrics.Event.LOCK_CONTENTION);
+        return false;
     }
 
 
@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_BATCH_SIZE;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_FLUSH_INTERVAL;
+
+/**
+ * CacheInvalidationBus  基于redis发布订阅的本地缓存失效通知
+ *
+ * 多节点部署时，某个节点修改数据只能删除redis和自己的本地缓存，其他节点的本地缓存仍是旧数据
+ * 1.写操作调用publish，key先放入待发送集合（同一个key在一个周期内只发送一次）
+ * 2.后台线程每隔一个周期把待发送的key合并成一条消息发送，批量导入时不会刷屏
+ * 3.所有节点订阅该频道，收到消息后删除本地缓存中的对应key，自己发的消息直接忽略
+ *
+ * 消息格式: 节点标识|key1,key2,...
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class CacheInvalidationBus implements MessageListener {
+
+    // 当前节点标识
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final LocalCache localCache;
+
+    // 待发送的key，Set自动去重
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    public CacheInvalidationBus(StringRedisTemplate stringRedisTemplate,
+                                RedisMessageListenerContainer listenerContainer,
+                                LocalCache localCache) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.localCache = localCache;
+    }
+
+    @PostConstruct
+    void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        flushExecutor.scheduleWithFixedDelay(this::flush,
+                CACHE_INVALIDATE_FLUSH_INTERVAL, CACHE_INVALIDATE_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void destroy() {
+        flushExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * 通知其他节点删除本地缓存（异步合并发送）
+     */
+    public void publish(String key) {
+        pendingKeys.add(key);
+    }
+
+    // 合并发送待删除的key
+    private void flush() {
+        if (pendingKeys.isEmpty()) {
+            return;
+        }
+        try {
+            List<String> batch = new ArrayList<>(CACHE_INVALIDATE_BATCH_SIZE);
+            Iterator<String> iterator = pendingKeys.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                iterator.remove();
+                if (batch.size() == CACHE_INVALIDATE_BATCH_SIZE) {
+                    send(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                send(batch);
+            }
+        } catch (Exception e) {
+            log.error("发送缓存失效通知异常", e);
+        }
+    }
+
+    private void send(List<String> keys) {
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, NODE_ID + "|" + StrUtil.join(",", keys));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf('|');
+        if (index < 0) {
+            return;
+        }
+        // 自己发送的消息，本地缓存在写的时候已经删除了
+        if (NODE_ID.equals(body.substring(0, index))) {
+            return;
+        }
+        for (String key : StrUtil.split(body.substring(index + 1), ',')) {
+            if (StrUtil.isNotBlank(key)) {
+                localCache.invalidate(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CacheMetrics  缓存指标，按key前缀统计
+ *
+ * 1.计数器：本地命中、redis命中、未命中、空值命中、返回过期数据、重建开始、重建失败、锁竞争
+ * 2.耗时直方图：redis查询、数据库加载
+ * 3.scrape() 输出Prometheus文本格式，用于根据数据调整TTL
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class CacheMetrics {
+
+    public enum Event {
+        HIT_LOCAL("hit_local"),
+        HIT_REDIS("hit_redis"),
+        MISS("miss"),
+        NULL_HIT("null_hit"),
+        STALE("stale"),
+        REBUILD_STARTED("rebuild_started"),
+        REBUILD_FAILED("rebuild_failed"),
+        LOCK_CONTENTION("lock_contention");
+
+        private final String label;
+
+        Event(String label) {
+            this.label = label;
+        }
+    }
+
+    // 直方图的桶上限(秒)
+    private static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5};
+
+    private static class Histogram {
+        final LongAdder[] counts = new LongAdder[BUCKETS.length];
+        final LongAdder count = new LongAdder();
+        final DoubleAdder sum = new DoubleAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void observe(long nanos) {
+            double seconds = nanos / 1e9;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i]) {
+                    counts[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(seconds);
+        }
+    }
+
+    private static class PrefixMetrics {
+        final LongAdder[] events = new LongAdder[Event.values().length];
+        final Histogram redis = new Histogram();
+        final Histogram db = new Histogram();
+
+        PrefixMetrics() {
+            for (int i = 0; i < events.length; i++) {
+                events[i] = new LongAdder();
+            }
+        }
+    }
+
+    private final Map<String, PrefixMetrics> metrics = new ConcurrentHashMap<>();
+
+    public void record(String prefix, Event event) {
+        of(prefix).events[event.ordinal()].increment();
+    }
+
+    public void recordRedis(String prefix, long nanos) {
+        of(prefix).redis.observe(nanos);
+    }
+
+    public void recordDb(String prefix, long nanos) {
+        of(prefix).db.observe(nanos);
+    }
+
+    public long count(String prefix, Event event) {
+        PrefixMetrics m = metrics.get(prefix);
+        return m == null ? 0 : m.events[event.ordinal()].sum();
+    }
+
+    private PrefixMetrics of(String prefix) {
+        PrefixMetrics m = metrics.get(prefix);
+        return m != null ? m : metrics.computeIfAbsent(prefix, k -> new PrefixMetrics());
+    }
+
+    /**
+     * Prometheus文本格式
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(2048);
+        Map<String, PrefixMetrics> sorted = new TreeMap<>(metrics);
+        sb.append("# HELP cache_requests_total Cache events by key prefix.\n");
+        sb.append("# TYPE cache_requests_total counter\n");
+        for (Map.Entry<String, PrefixMetrics> entry : sorted.entrySet()) {
+            for (Event event : Event.values()) {
+                sb.append("cache_requests_total{prefix=\"").append(escape(entry.getKey()))
+                        .append("\",event=\"").append(event.label).append("\"} ")
+                        .append(entry.getValue().events[event.ordinal()].sum()).append('\n');
+            }
+        }
+        appendHistogram(sb, "cache_redis_seconds", "Redis read latency by key prefix.", sorted, true);
+        appendHistogram(sb, "cache_db_load_seconds", "Database load latency by key prefix.", sorted, false);
+        return sb.toString();
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, String help,
+                                        Map<String, PrefixMetrics> sorted, boolean redis) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        for (Map.Entry<String, PrefixMetrics> entry : sorted.entrySet()) {
+            String prefix = escape(entry.getKey());
+            Histogram h = redis ? entry.getValue().redis : entry.getValue().db;
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += h.counts[i].sum();
+                sb.append(name).append("_bucket{prefix=\"").append(prefix)
+                        .append("\",le=\"").append(BUCKETS[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            long count = h.count.sum();
+            sb.append(name).append("_bucket{prefix=\"").append(prefix).append("\",le=\"+Inf\"} ").append(count).append('\n');
+            sb.append(name).append("_sum{prefix=\"").append(prefix).append("\"} ").append(h.sum.sum()).append('\n');
+            sb.append(name).append("_count{prefix=\"").append(prefix).append("\"} ").append(count).append('\n');
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * CacheRefresher  逻辑过期缓存的提前刷新
+ *
+ * 原来只有请求落在逻辑过期之后才会触发重建，并且该请求拿到的是旧数据
+ * 1.记录每个逻辑过期key的访问次数（每个周期衰减一半）和逻辑过期时间
+ * 2.定时扫描，访问频率达到阈值、且即将过期的热点key，在过期前提前重建
+ * 3.重建任务在有界线程池中执行，同一个key同时只会有一个重建任务，队列满时丢弃
+ * 4.长期没有访问的key不再跟踪，跟踪的key数量有上限
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class CacheRefresher {
+
+    // 跟踪的key
+    private static class Tracked {
+        final Runnable reloadTask;
+        final AtomicInteger hits = new AtomicInteger();
+        // 衰减后的访问频率
+        volatile int score;
+        // 逻辑过期时间
+        volatile long expireTime;
+
+        Tracked(Runnable reloadTask) {
+            this.reloadTask = reloadTask;
+        }
+    }
+
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+    // 正在重建的key
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    // 有界线程池
+    private final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(
+            REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(REFRESH_QUEUE_CAPACITY),
+            new NamedThreadFactory("cache-refresh-", true),
+            new ThreadPoolExecutor.AbortPolicy());
+
+    private final ScheduledExecutorService scanExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    void init() {
+        scanExecutor.scheduleWithFixedDelay(this::scan,
+                REFRESH_SCAN_INTERVAL, REFRESH_SCAN_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void destroy() {
+        scanExecutor.shutdownNow();
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * 从redis读到未过期的数据时记录访问
+     */
+    public void track(String key, long expireTime, Runnable reloadTask) {
+        Tracked t = tracked.get(key);
+        if (t == null) {
+            if (tracked.size() >= REFRESH_MAX_TRACKED) {
+                return;
+            }
+            t = tracked.computeIfAbsent(key, k -> new Tracked(reloadTask));
+        }
+        t.expireTime = expireTime;
+        t.hits.incrementAndGet();
+    }
+
+    /**
+     * 本地缓存命中时记录访问
+     */
+    public void touch(String key) {
+        Tracked t = tracked.get(key);
+        if (t != null) {
+            t.hits.incrementAndGet();
+        }
+    }
+
+    /**
+     * 重建完成（或发现已被其他节点重建）后更新逻辑过期时间
+     */
+    public void refreshed(String key, long expireTime) {
+        Tracked t = tracked.get(key);
+        if (t != null) {
+            t.expireTime = expireTime;
+        }
+    }
+
+    /**
+     * 提交重建任务，同一个key同时只执行一个
+     * @return false 已有任务在执行或队列已满
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!inFlight.add(key)) {
+            return false;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("缓存重建失败，key：{}", key, e);
+                } finally {
+                    inFlight.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            log.warn("缓存重建队列已满，丢弃任务，key：{}", key);
+            return false;
+        }
+    }
+
+    // 扫描热点key，提前重建
+    private void scan() {
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<String, Tracked>> iterator = tracked.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Tracked> entry = iterator.next();
+                Tracked t = entry.getValue();
+                // 衰减：一半来自历史，加上本周期的访问次数
+                t.score = (t.score >> 1) + t.hits.getAndSet(0);
+                if (t.score == 0) {
+                    // 不再访问的key不再跟踪
+                    iterator.remove();
+                    continue;
+                }
+                if (t.score >= REFRESH_HOT_THRESHOLD && t.expireTime - now <= REFRESH_AHEAD_TIME) {
+                    submit(entry.getKey(), t.reloadTask);
+                }
+            }
+        } catch (Exception e) {
+            log.error("扫描热点缓存异常", e);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.utils.codec.CacheCodec;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CacheSerializer  缓存对象与redis字符串之间的转换
+ *
+ * 1.注册了CacheCodec的类型使用二进制格式：'#' + base64( 标志位 [+ 逻辑过期时间] + 数据 )
+ *   标志位 1:普通值 2:带逻辑过期时间 3:列表
+ *   逻辑过期时间为8字节的毫秒时间戳，不用再解析json中的LocalDateTime
+ * 2.其他类型仍使用json（逻辑过期使用RedisData）
+ * 3.读取时根据首字符判断格式，redis中已有的json数据仍可读取
+ * 4.旧版本节点只能读取json，hmdp.cache.write-binary 默认关闭，只读不写二进制格式；
+ *   所有节点都升级后再开启，回滚前先关闭并等缓存过期
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class CacheSerializer {
+
+    private static final char BINARY_PREFIX = '#';
+
+    private static final byte FLAG_VALUE = 1;
+    private static final byte FLAG_EXPIRE = 2;
+    private static final byte FLAG_LIST = 3;
+
+    private final Map<Class<?>, CacheCodec<?>> codecs = new HashMap<>();
+
+    // 是否以二进制格式写入，关闭时只用于读取
+    private final boolean writeBinary;
+
+    public CacheSerializer(List<CacheCodec<?>> codecs,
+                           @Value("${hmdp.cache.write-binary:false}") boolean writeBinary) {
+        this.writeBinary = writeBinary;
+        for (CacheCodec<?> codec : codecs) {
+            this.codecs.put(codec.type(), codec);
+        }
+    }
+
+    /**
+     * 带逻辑过期时间的缓存数据
+     */
+    @Data
+    public static class Entry<R> {
+        private final R data;
+        // 逻辑过期时间 毫秒时间戳
+        private final long expireTime;
+
+        public boolean isExpired() {
+            return expireTime <= System.currentTimeMillis();
+        }
+    }
+
+    public String serialize(Object value) {
+        CacheCodec<Object> codec = writeCodec(value.getClass());
+        if (codec == null) {
+            return JSONUtil.toJsonStr(value);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FLAG_VALUE);
+            codec.write(value, out);
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存序列化失败", e);
+        }
+        return encode(bytes.toByteArray());
+    }
+
+    public <R> R deserialize(String data, Class<R> type) {
+        if (!isBinary(data)) {
+            return JSONUtil.toBean(data, type);
+        }
+        try (DataInputStream in = decode(data)) {
+            checkFlag(in.readByte(), FLAG_VALUE);
+            return requireCodec(type).read(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存反序列化失败", e);
+        }
+    }
+
+    public String serializeWithExpire(Object value, long expireTime) {
+        CacheCodec<Object> codec = value == null ? null : writeCodec(value.getClass());
+        if (codec == null) {
+            RedisData redisData = new RedisData();
+            redisData.setData(value);
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireTime), ZoneId.systemDefault()));
+            return JSONUtil.toJsonStr(redisData);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(136);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FLAG_EXPIRE);
+            out.writeLong(expireTime);
+            codec.write(value, out);
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存序列化失败", e);
+        }
+        return encode(bytes.toByteArray());
+    }
+
+    public <R> Entry<R> deserializeWithExpire(String data, Class<R> type) {
+        if (!isBinary(data)) {
+            RedisData redisData = JSONUtil.toBean(data, RedisData.class);
+            R r = redisData.getData() == null ? null : JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            long expireTime = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return new Entry<>(r, expireTime);
+        }
+        try (DataInputStream in = decode(data)) {
+            checkFlag(in.readByte(), FLAG_EXPIRE);
+            long expireTime = in.readLong();
+            return new Entry<>(requireCodec(type).read(in), expireTime);
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存反序列化失败", e);
+        }
+    }
+
+    public <R> String serializeList(List<R> values, Class<R> type) {
+        CacheCodec<R> codec = writeCodec(type);
+        if (codec == null) {
+            return JSONUtil.toJsonStr(values);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * values.size() + 8);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FLAG_LIST);
+            out.writeInt(values.size());
+            for (R value : values) {
+                codec.write(value, out);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存序列化失败", e);
+        }
+        return encode(bytes.toByteArray());
+    }
+
+    public <R> List<R> deserializeList(String data, Class<R> type) {
+        if (!isBinary(data)) {
+            return JSONUtil.toList(JSONUtil.parseArray(data), type);
+        }
+        try (DataInputStream in = decode(data)) {
+            checkFlag(in.readByte(), FLAG_LIST);
+            CacheCodec<R> codec = requireCodec(type);
+            int size = in.readInt();
+            List<R> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(codec.read(in));
+            }
+            return list;
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存反序列化失败", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> CacheCodec<R> codec(Class<?> type) {
+        return (CacheCodec<R>) codecs.get(type);
+    }
+
+    private <R> CacheCodec<R> writeCodec(Class<?> type) {
+        return writeBinary ? codec(type) : null;
+    }
+
+    private <R> CacheCodec<R> requireCodec(Class<R> type) {
+        CacheCodec<R> codec = codec(type);
+        if (codec == null) {
+            throw new IllegalStateException("没有类型对应的编解码器: " + type.getName());
+        }
+        return codec;
+    }
+
+    private static boolean isBinary(String data) {
+        return !data.isEmpty() && data.charAt(0) == BINARY_PREFIX;
+    }
+
+    private static String encode(byte[] bytes) {
+        return BINARY_PREFIX + Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static DataInputStream decode(String data) {
+        byte[] bytes = Base64.getDecoder().decode(data.substring(1));
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static void checkFlag(byte actual, byte expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("缓存数据格式不匹配, 标志位: " + actual + ", 期望: " + expected);
+        }
+    }
+}
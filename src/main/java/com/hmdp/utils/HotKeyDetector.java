@@ -0,0 +1,191 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * HotKeyDetector  热点key探测
+ *
+ * 1.滑动窗口：每秒一个Count-Min Sketch，共 HOT_KEY_WINDOW 个，每秒淘汰最旧的一个
+ *   CMS用固定大小的计数数组估算每个key的访问次数（只会多估不会少估），内存与key的数量无关
+ * 2.每次访问累加当前秒的计数，窗口内估算次数超过 QPS阈值 * 窗口秒数 即为热点key
+ * 3.每秒用小顶堆保留估算次数最高的 HOT_KEY_TOP_K 个热点key，其余移出
+ * 4.CacheClient对热点key固定在本地缓存中(LocalCache.pin)，分摊单个redis实例的压力；
+ *   每次窗口滑动后通知监听者当前的热点key，CacheClient据此续期仍是热点的固定key
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    // 每个CMS的行数(哈希函数个数)和列数
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 4096;
+
+    private static final long THRESHOLD = (long) HOT_KEY_QPS_THRESHOLD * HOT_KEY_WINDOW;
+
+    // 环形数组，每个元素是一秒的CMS (DEPTH * WIDTH)
+    private final AtomicIntegerArray[] buckets = new AtomicIntegerArray[HOT_KEY_WINDOW];
+
+    private volatile int current;
+
+    // 热点key -> 窗口内估算的访问次数
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    // 窗口滑动后的监听者，参数为当前的热点key
+    private final List<Consumer<Set<String>>> rotateListeners = new CopyOnWriteArrayList<>();
+
+    private final ScheduledExecutorService rotateExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    public HotKeyDetector() {
+        for (int i = 0; i < HOT_KEY_WINDOW; i++) {
+            buckets[i] = new AtomicIntegerArray(DEPTH * WIDTH);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        rotateExecutor.scheduleAtFixedRate(this::rotate, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void destroy() {
+        rotateExecutor.shutdownNow();
+    }
+
+    /**
+     * 记录一次访问
+     * @return 是否为热点key
+     */
+    public boolean record(String key) {
+        int h = key.hashCode();
+        int h1 = h ^ (h >>> 16);
+        int h2 = Integer.reverse(h) * 0x9E3779B9 | 1;
+        AtomicIntegerArray bucket = buckets[current];
+        for (int i = 0; i < DEPTH; i++) {
+            bucket.incrementAndGet(i * WIDTH + index(h1 + i * h2));
+        }
+        if (hotKeys.containsKey(key)) {
+            return true;
+        }
+        long estimate = estimate(h1, h2);
+        if (estimate >= THRESHOLD) {
+            hotKeys.put(key, estimate);
+            log.info("发现热点key：{}，{}秒内访问约{}次", key, HOT_KEY_WINDOW, estimate);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 注册窗口滑动的监听者，在滑动线程中执行
+     */
+    public void addRotateListener(Consumer<Set<String>> listener) {
+        rotateListeners.add(listener);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前的热点key，按访问次数从高到低
+     */
+    public Map<String, Long> hotKeys() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+        Map<String, Long> result = new LinkedHashMap<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    // 窗口内估算的访问次数：每一行取窗口内的和，再取所有行的最小值
+    private long estimate(int h1, int h2) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + index(h1 + i * h2);
+            long sum = 0;
+            for (AtomicIntegerArray bucket : buckets) {
+                sum += bucket.get(index);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    private long estimate(String key) {
+        int h = key.hashCode();
+        return estimate(h ^ (h >>> 16), Integer.reverse(h) * 0x9E3779B9 | 1);
+    }
+
+    private static int index(int hash) {
+        return (hash & 0x7fffffff) % WIDTH;
+    }
+
+    // 每秒滑动窗口，并重新计算TopK
+    private void rotate() {
+        try {
+            int next = (current + 1) % HOT_KEY_WINDOW;
+            // 清空最旧的一秒再切换
+            AtomicIntegerArray bucket = buckets[next];
+            for (int i = 0; i < bucket.length(); i++) {
+                bucket.set(i, 0);
+            }
+            current = next;
+
+            // 小顶堆保留访问次数最高的K个
+            PriorityQueue<Map.Entry<String, Long>> heap =
+                    new PriorityQueue<>(HOT_KEY_TOP_K + 1, Comparator.comparingLong(Map.Entry::getValue));
+            for (String key : hotKeys.keySet()) {
+                long estimate = estimate(key);
+                if (estimate < THRESHOLD) {
+                    hotKeys.remove(key);
+                    continue;
+                }
+                heap.offer(new AbstractMap.SimpleEntry<>(key, estimate));
+                if (heap.size() > HOT_KEY_TOP_K) {
+                    hotKeys.remove(heap.poll().getKey());
+                }
+            }
+            for (Map.Entry<String, Long> entry : heap) {
+                hotKeys.replace(entry.getKey(), entry.getValue());
+            }
+        } catch (Exception e) {
+            log.error("热点key窗口滑动异常", e);
+        }
+        Set<String> keys = new HashSet<>(hotKeys.keySet());
+        for (Consumer<Set<String>> listener : rotateListeners) {
+            try {
+                listener.accept(keys);
+            } catch (Exception e) {
+                log.error("热点key窗口滑动通知异常", e);
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.hmdp.utils;
 
+import java.util.concurrent.TimeUnit;
+
 public interface ILock {
     /**
      * 尝试获取锁
@@ -8,6 +10,20 @@ public interface ILock {
      */
     boolean tryLock(long timeoutSec);
 
+    /**
+     * 尝试获取锁，被其他线程持有时等待释放
+     * @param waitTime 最长等待时间
+     * @param leaseTime 锁的TTL，-1表示由看门狗续期直到释放
+     * @param unit 时间单位
+     * @return true获取到锁  false 等待超时
+     */
+    boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 当前线程是否持有锁
+     */
+    boolean isHeldByCurrentThread();
+
     /**
      * 释放锁
      */
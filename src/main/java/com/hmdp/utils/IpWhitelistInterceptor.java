@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * IpWhitelistInterceptor  按来源ip放行的拦截器，用于Prometheus等无法登录的采集端
+ *
+ * 1.只判断直连的来源地址(remoteAddr)，不信任可以伪造的 X-Forwarded-For
+ * 2.未配置白名单时全部拒绝
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+public class IpWhitelistInterceptor implements HandlerInterceptor {
+
+    private static final String FORBIDDEN = JSONUtil.toJsonStr(Result.fail("没有权限！"));
+
+    private final Set<String> allowedIps;
+
+    public IpWhitelistInterceptor(Set<String> allowedIps) {
+        this.allowedIps = allowedIps;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (allowedIps.contains(request.getRemoteAddr())) {
+            return true;
+        }
+        response.setStatus(HttpStatus.FORBIDDEN.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(FORBIDDEN);
+        return false;
+    }
+}
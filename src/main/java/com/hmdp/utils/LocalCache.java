@@ -0,0 +1,152 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.HOT_KEY_TOP_K;
+import static com.hmdp.utils.RedisConstants.LOCAL_CACHE_CAPACITY;
+import static com.hmdp.utils.RedisConstants.LOCAL_CACHE_TTL;
+
+/**
+ * LocalCache  进程内一级缓存(L1)，位于redis(L2)之前
+ *
+ * 1.容量有上限，超出后按LRU淘汰
+ * 2.每个条目有绝对过期时间（读取不会续期），保证与redis的不一致时间有上限
+ * 3.按key的hash分段，每段一把锁，减少热点读时的锁竞争
+ * 4.数据库中不存在的数据用 NULL_VALUE 占位，防止穿透到redis
+ * 5.热点key通过pin单独存放，不参与LRU淘汰，读取不加锁；
+ *   固定时长很短，仍是热点时由CacheClient每秒从redis重新读取并续期，请求不回源redis；
+ *   写入(重建)时替换固定的值，更新时由失效通知移除
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class LocalCache {
+
+    //空值占位对象
+    public static final Object NULL_VALUE = new Object();
+
+    //分段数 必须是2的幂
+    private static final int SEGMENTS = 16;
+
+    private final Cache<String, Object>[] segments;
+
+    private final long defaultTimeout;
+
+    // 固定的热点key
+    private final Map<String, Pinned> pinned = new ConcurrentHashMap<>();
+
+    private static class Pinned {
+        final Object value;
+        final long expireAt;
+
+        Pinned(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    public LocalCache() {
+        this(LOCAL_CACHE_CAPACITY, TimeUnit.SECONDS.toMillis(LOCAL_CACHE_TTL));
+    }
+
+    @SuppressWarnings("unchecked")
+    public LocalCache(int capacity, long timeoutMillis) {
+        this.defaultTimeout = timeoutMillis;
+        this.segments = new Cache[SEGMENTS];
+        int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = CacheUtil.newLRUCache(segmentCapacity, timeoutMillis);
+        }
+    }
+
+    /**
+     * 查询本地缓存
+     * @return 未命中返回null，命中空值返回 NULL_VALUE
+     */
+    public Object get(String key) {
+        if (!pinned.isEmpty()) {
+            Pinned p = pinned.get(key);
+            if (p != null) {
+                if (p.expireAt > System.currentTimeMillis()) {
+                    return p.value;
+                }
+                pinned.remove(key, p);
+            }
+        }
+        // false: 读取不刷新过期时间
+        return segment(key).get(key, false);
+    }
+
+    /**
+     * 固定热点key，到期前不会被LRU淘汰
+     */
+    public void pin(String key, Object value, long timeoutMillis) {
+        if (timeoutMillis <= 0 || (pinned.size() >= HOT_KEY_TOP_K * 2 && !pinned.containsKey(key))) {
+            return;
+        }
+        pinned.put(key, new Pinned(value == null ? NULL_VALUE : value, System.currentTimeMillis() + timeoutMillis));
+    }
+
+    /**
+     * 写入本地缓存，已固定的热点key同时替换固定的值，固定时长不变
+     */
+    public void put(String key, Object value) {
+        put(key, value, defaultTimeout, Long.MAX_VALUE);
+    }
+
+    /**
+     * 写入本地缓存，过期时间不会超过默认的L1时长；
+     * 已固定的热点key同时替换固定的值，固定时长不超过本次的有效期（逻辑过期时间）
+     */
+    public void put(String key, Object value, long timeoutMillis) {
+        put(key, value, timeoutMillis, timeoutMillis);
+    }
+
+    private void put(String key, Object value, long timeoutMillis, long pinTimeoutMillis) {
+        if (timeoutMillis <= 0) {
+            pinned.remove(key);
+            return;
+        }
+        Object v = value == null ? NULL_VALUE : value;
+        segment(key).put(key, v, Math.min(timeoutMillis, defaultTimeout));
+        // 缓存重建后固定的旧值不能继续返回
+        if (!pinned.isEmpty()) {
+            long now = System.currentTimeMillis();
+            pinned.computeIfPresent(key, (k, p) -> new Pinned(v,
+                    pinTimeoutMillis == Long.MAX_VALUE ? p.expireAt : Math.min(p.expireAt, now + pinTimeoutMillis)));
+        }
+    }
+
+    public void invalidate(String key) {
+        pinned.remove(key);
+        segment(key).remove(key);
+    }
+
+    public void clear() {
+        pinned.clear();
+        for (Cache<String, Object> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Cache<String, Object> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Cache<String, Object> segment(String key) {
+        int h = key.hashCode();
+        // 扰动函数 让高位也参与运算
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+}
@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LocalFirstLock  先获取本地锁再获取分布式锁
+ *
+ * 同一节点很多线程竞争同一个锁key时，每个线程都去redis加锁，只有一个能成功
+ * 1.先获取本地锁，只有本节点的获胜者才访问redis，其余线程在本地锁上排队或直接失败
+ * 2.释放时先释放分布式锁再释放本地锁，本地锁是公平锁，交给排队最久的线程，由它去redis加锁
+ * 3.本地锁和 SimpleRedisLock 都可重入，重入次数保持一致
+ * 4.每个锁key一个本地锁，不同key之间不会互相等待；持有和排队的线程各占一个引用，引用为0时移除
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+public class LocalFirstLock implements ILock {
+
+    private final ILock delegate;
+
+    private final String key;
+
+    private final LocalLocks locals;
+
+    public LocalFirstLock(ILock delegate, String key, LocalLocks locals) {
+        this.delegate = delegate;
+        this.key = key;
+        this.locals = locals;
+    }
+
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        ReentrantLock local = locals.acquire(key);
+        boolean success = false;
+        try {
+            //本节点其他线程持有，不访问redis
+            if (!local.tryLock()) {
+                return false;
+            }
+            try {
+                success = delegate.tryLock(timeoutSec);
+                return success;
+            } finally {
+                if (!success) {
+                    local.unlock();
+                }
+            }
+        } finally {
+            if (!success) {
+                locals.release(key);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        ReentrantLock local = locals.acquire(key);
+        boolean success = false;
+        try {
+            //1.在本地锁上排队
+            if (!local.tryLock(waitTime, unit)) {
+                return false;
+            }
+            //2.本节点的获胜者在剩余时间内获取分布式锁
+            try {
+                long remaining = Math.max(deadline - System.nanoTime(), 0);
+                success = delegate.tryLock(remaining, leaseTime > 0 ? unit.toNanos(leaseTime) : -1, TimeUnit.NANOSECONDS);
+                return success;
+            } finally {
+                if (!success) {
+                    local.unlock();
+                }
+            }
+        } finally {
+            if (!success) {
+                locals.release(key);
+            }
+        }
+    }
+
+    @Override
+    public boolean isHeldByCurrentThread() {
+        ReentrantLock local = locals.get(key);
+        return local != null && local.isHeldByCurrentThread() && delegate.isHeldByCurrentThread();
+    }
+
+    @Override
+    public void unlock() {
+        ReentrantLock local = locals.get(key);
+        if (local == null || !local.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("当前线程没有持有锁");
+        }
+        try {
+            delegate.unlock();
+        } finally {
+            local.unlock();
+            locals.release(key);
+        }
+    }
+
+    /**
+     * 锁key -> 本地锁和引用计数，引用的增减都在 compute 中完成，引用不为0时同一个key始终是同一个本地锁
+     */
+    public static class LocalLocks {
+
+        private final Map<String, Entry> locks = new ConcurrentHashMap<>();
+
+        ReentrantLock acquire(String key) {
+            return locks.compute(key, (k, entry) -> {
+                if (entry == null) {
+                    entry = new Entry();
+                }
+                entry.refs++;
+                return entry;
+            }).lock;
+        }
+
+        void release(String key) {
+            locks.computeIfPresent(key, (k, entry) -> --entry.refs == 0 ? null : entry);
+        }
+
+        ReentrantLock get(String key) {
+            Entry entry = locks.get(key);
+            return entry == null ? null : entry.lock;
+        }
+
+        /**
+         * 当前持有或排队中的锁key数量
+         */
+        public int size() {
+            return locks.size();
+        }
+
+        private static class Entry {
+            private final ReentrantLock lock = new ReentrantLock(true);
+            private int refs;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import static com.hmdp.utils.SimpleRedisLock.lock_prefix;
+
+/**
+ * LockFacade  分布式锁入口，同一节点的竞争在本地合并
+ *
+ * 1.getLock(name) 返回 LocalFirstLock：本地锁 + SimpleRedisLock(lock:name)
+ * 2.本地锁按完整的锁key创建，只在有线程持有或排队时存在，不会随key(如每个用户一个)一直增长
+ * 3.商铺缓存重建锁 lock:shop:{id}、订单锁 lock:order:{userId} 都通过这里获取
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class LockFacade {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisLockNotifier redisLockNotifier;
+
+    private final LocalFirstLock.LocalLocks locals = new LocalFirstLock.LocalLocks();
+
+    public LockFacade(StringRedisTemplate stringRedisTemplate, RedisLockNotifier redisLockNotifier) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisLockNotifier = redisLockNotifier;
+    }
+
+    /**
+     * @param name 锁的名称，redis中的key为 lock:name
+     */
+    public ILock getLock(String name) {
+        return new LocalFirstLock(new SimpleRedisLock(stringRedisTemplate, name, redisLockNotifier), lock_prefix + name, locals);
+    }
+}
@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * RateLimit  接口限流
+ *
+ * 标注在controller方法上，由 RateLimitInterceptor 处理
+ * 限流规则在 application.yaml 的 hmdp.rate-limit.rules.{value} 中配置
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+
+    /**
+     * 限流规则名称
+     */
+    String value();
+
+    /**
+     * 按资源限流时，资源id所在的路径变量
+     */
+    String resource() default "id";
+}
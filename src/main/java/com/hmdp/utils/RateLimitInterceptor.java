@@ -0,0 +1,128 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * RateLimitInterceptor  处理 @RateLimit 的限流拦截器
+ *
+ * 1.本地令牌桶：每个节点的总请求数，超出直接拒绝，不访问redis
+ * 2.redis滑动窗口：先按用户、再按资源(路径变量，如优惠券id)限制所有节点的总请求数
+ *   按用户拒绝的请求不会占用资源的配额；两个维度分别执行脚本，集群模式下key可以在不同的slot
+ * 3.被限流时返回429和 Result.fail；redis异常时放行，不影响正常下单
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final String REJECTED = JSONUtil.toJsonStr(Result.fail("请求过于频繁，请稍后再试！"));
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RateLimitProperties properties;
+
+    // 规则名称 -> 本节点的令牌桶
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    public RateLimitInterceptor(StringRedisTemplate stringRedisTemplate, RateLimitProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = properties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!properties.isEnabled() || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        RateLimit rateLimit = ((HandlerMethod) handler).getMethodAnnotation(RateLimit.class);
+        if (rateLimit == null) {
+            return true;
+        }
+        RateLimitProperties.Rule rule = properties.getRules().get(rateLimit.value());
+        if (rule == null) {
+            return true;
+        }
+        if (allow(rateLimit, rule, request)) {
+            return true;
+        }
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(REJECTED);
+        return false;
+    }
+
+    private boolean allow(RateLimit rateLimit, RateLimitProperties.Rule rule, HttpServletRequest request) {
+        String name = rateLimit.value();
+        //1.本节点令牌桶
+        if (rule.getNodePermitsPerSecond() > 0) {
+            TokenBucket bucket = buckets.computeIfAbsent(name,
+                    k -> new TokenBucket(rule.getNodePermitsPerSecond(), rule.getNodeBurst()));
+            if (!bucket.tryAcquire()) {
+                return false;
+            }
+        }
+        //2.按用户
+        UserDTO user = UserHolder.getUser();
+        if (rule.getUserLimit() > 0 && user != null
+                && !slidingWindow(name + ":user:" + user.getId(), rule.getUserLimit(), rule.getWindowMillis())) {
+            return false;
+        }
+        //3.按资源
+        Object resource = pathVariable(request, rateLimit.resource());
+        return rule.getResourceLimit() <= 0 || resource == null
+                || slidingWindow(name + ":" + rateLimit.resource() + ":" + resource, rule.getResourceLimit(), rule.getWindowMillis());
+    }
+
+    private boolean slidingWindow(String id, int limit, long windowMillis) {
+        long now = System.currentTimeMillis();
+        long window = now / windowMillis;
+        double elapsed = (double) (now % windowMillis) / windowMillis;
+        // hash tag保证当前窗口和上一个窗口的key在同一个slot
+        String key = RATE_LIMIT_KEY + "{" + id + "}:";
+        try {
+            Long r = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT,
+                    Arrays.asList(key + window, key + (window - 1)),
+                    String.valueOf(limit), String.valueOf(elapsed), String.valueOf(windowMillis));
+            return r == null || r == 1;
+        } catch (Exception e) {
+            log.warn("限流脚本执行失败，放行：{}", id, e);
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object pathVariable(HttpServletRequest request, String name) {
+        Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        return variables instanceof Map ? ((Map<String, String>) variables).get(name) : null;
+    }
+}
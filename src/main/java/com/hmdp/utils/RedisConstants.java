@@ -10,13 +10,69 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    //新增商铺id 通知所有节点加入布隆过滤器的频道
+    public static final String BLOOM_SHOP_ADD_CHANNEL = "bloom:shop:add";
+
+    //本地一级缓存 容量 / 最长存活时间(秒)
+    public static final int LOCAL_CACHE_CAPACITY = 10000;
+    public static final Long LOCAL_CACHE_TTL = 5L;
+    //本地缓存失效通知频道 / 合并发送间隔(毫秒) / 单条消息最多携带的key数
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final long CACHE_INVALIDATE_FLUSH_INTERVAL = 50L;
+    public static final int CACHE_INVALIDATE_BATCH_SIZE = 200;
+
+    //笔记作者信息 本地缓存key
+    public static final String CACHE_USER_KEY = "cache:user:";
 
     public static final String CACHE_SHOP_TYPE_LIST_KEY = "cache:shop:type";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    //分布式锁释放通知频道 / 看门狗模式下锁的TTL(毫秒)，每隔1/3续期一次
+    public static final String LOCK_UNLOCK_CHANNEL = "lock:unlock";
+    public static final long LOCK_WATCHDOG_TTL = 30000L;
+    //SimpleRedisLock 会加上 lock: 前缀，与旧版本redisson锁的key相同，滚动发布期间仍然互斥
+    public static final String LOCK_SECKILL_RECONCILE_NAME = "seckill:reconcile";
+    //一人一单的订单锁 lock:order:{userId}，逐条创建订单时获取 / 最长等待时间(毫秒)
+    public static final String LOCK_ORDER_NAME = "order:";
+    public static final long LOCK_ORDER_WAIT = 1000L;
+    //未获取到互斥锁时 重新查询redis的间隔(毫秒) / 最大次数
+    public static final long MUTEX_RETRY_INTERVAL = 50L;
+    public static final int MUTEX_MAX_RETRIES = 20;
+    //逻辑过期缓存提前刷新：过期前多久刷新(毫秒) / 热点阈值(衰减后的访问次数) / 扫描间隔(毫秒)
+    public static final long REFRESH_AHEAD_TIME = 5000L;
+    public static final int REFRESH_HOT_THRESHOLD = 20;
+    public static final long REFRESH_SCAN_INTERVAL = 1000L;
+    //跟踪的key数量上限 / 重建线程数 / 重建队列长度
+    public static final int REFRESH_MAX_TRACKED = 10000;
+    public static final int REFRESH_THREADS = 4;
+    public static final int REFRESH_QUEUE_CAPACITY = 1024;
+    //热点key探测：滑动窗口(秒) / QPS阈值 / 最多保留的热点key数 / 热点key固定在本地缓存的时长(毫秒)
+    //固定的key每次窗口滑动(每秒)从redis重新读取并续期，失效通知丢失时旧值最多保留一个续期周期
+    public static final int HOT_KEY_WINDOW = 5;
+    public static final int HOT_KEY_QPS_THRESHOLD = 500;
+    public static final int HOT_KEY_TOP_K = 100;
+    public static final long HOT_KEY_PIN_TTL = 3000L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    //秒杀时间本地缓存 有效期(毫秒) / 容量 / 不存在的秒杀券的缓存时长(毫秒)
+    public static final Long SECKILL_WINDOW_CACHE_TTL = 60000L;
+    public static final int SECKILL_WINDOW_CACHE_CAPACITY = 10000;
+    public static final Long SECKILL_WINDOW_MISSING_TTL = 5000L;
+    public static final String SECKILL_STATUS_KEY = "seckill:status:";
+    public static final Long SECKILL_STATUS_TTL = 30L;
+    public static final String SECKILL_REPLENISH_CHANNEL = "seckill:replenish";
+    public static final Long SECKILL_SOLD_OUT_TTL = 10000L;
+    //本地id模式的workerId租约 key / 租约时长(毫秒)
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final Long ID_WORKER_LEASE_TTL = 30000L;
+    public static final String RATE_LIMIT_KEY = "rate:limit:";
+    public static final String STREAM_ORDERS_KEY = "stream.orders";
+    public static final String STREAM_ORDERS_DLQ_KEY = "stream.orders.dlq";
+    public static final String STREAM_ORDERS_GROUP = "g1";
+    public static final Long STREAM_ORDERS_BLOCK = 2000L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -1,13 +1,33 @@
 package com.hmdp.utils;
 
-import lombok.val;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+import static com.hmdp.utils.RedisConstants.ID_WORKER_LEASE_TTL;
 
 /**
  * RedisIdWorker
@@ -15,10 +35,22 @@ import java.time.format.DateTimeFormatter;
  * 1位符号位 + 31位时间戳 + 32为序列号
  * 时间戳31位允许使用69年
  * 序列号允许每秒生成 2^32 个
+ *
+ * hmdp.id.mode=segment 时使用号段模式，不再每个id一次INCR：
+ * 1.一次INCRBY step 预留一段序列号 (end-step, end]，本地原子递增分配，时间戳取预留号段的时间
+ * 2.当前号段用到80%时异步预留下一段，用完时切换；下一段还在预留中则等待，保证本节点id单调递增
+ * 3.号段和INCR共用同一个key，秒杀lua脚本中的INCR与号段互不重叠，全局唯一
+ *
+ * hmdp.id.mode=snowflake 时完全在本地生成，只在启动时访问redis租用workerId：
+ * 1位符号位 + 1位标志位(固定为1) + 40位毫秒时间戳 + 10位workerId + 12位序列号
+ * 1.标志位使本地id都不小于2^62，原布局的id在34年内都小于2^62，两种布局的id不会重复，可以切换
+ * 2.启动时 SET id:worker:{n} 标识 NX PX 租用一个workerId，定时续期；续期时发现被占用则停止生成并重新租用
+ * 3.时间戳和序列号放在一个AtomicLong中CAS更新；同一毫秒序列号用完时等待下一毫秒
+ * 4.时钟回拨不超过 MAX_BACKWARD_MILLIS 时沿用上次的时间戳继续分配，超过则抛出异常
  * @author ZhengKai
  * @date 2023/3/27
  */
-
+@Slf4j
 @Component
 public class RedisIdWorker {
     StringRedisTemplate stringRedisTemplate;
@@ -31,17 +63,275 @@ public class RedisIdWorker {
     private final long BEGIN_TIMESTAMP = 1679875200L;
     //序列号位数
     private final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    //redis：每个id一次INCR；segment：号段模式
+    @Value("${hmdp.id.mode:redis}")
+    private String mode;
+
+    //每次预留的序列号个数
+    @Value("${hmdp.id.segment-step:1000}")
+    private int segmentStep;
+
+    //本地模式：序列号位数 / workerId位数 / 标志位 / 允许的时钟回拨(毫秒)
+    private static final int SEQUENCE_BITS = 12;
+    private static final int WORKER_BITS = 10;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final long LOCAL_FLAG = 1L << 62;
+    private static final long MAX_BACKWARD_MILLIS = 5L;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final String leaseToken = UUID.randomUUID().toString(true);
+    private volatile int workerId = -1;
+    //本地认为租约有效的截止时间，之后不再生成id
+    private volatile long leaseExpireAt;
+    //上次分配的 毫秒时间戳 << SEQUENCE_BITS | 序列号
+    private final AtomicLong lastState = new AtomicLong();
+
+    private final ScheduledExecutorService leaseExecutor =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("id-worker-lease-", true));
+
+    //号段：时间戳 + 序列号 (cursor, end]
+    private static class Segment {
+        final long timestamp;
+        final AtomicLong cursor;
+        final long end;
+        final long prefetchAt;
+
+        Segment(long timestamp, long start, long end, long prefetchAt) {
+            this.timestamp = timestamp;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    //每个key前缀的当前号段和预留好的下一段
+    private static class SegmentBuffer {
+        volatile Segment current;
+        Segment next;
+        boolean loading;
+    }
+
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-", true));
+
+    @PostConstruct
+    void init() {
+        if (!local()) {
+            return;
+        }
+        if (!acquireLease()) {
+            throw new IllegalStateException("没有可用的workerId");
+        }
+        long period = ID_WORKER_LEASE_TTL / 3;
+        leaseExecutor.scheduleWithFixedDelay(this::renewLease, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void destroy() {
+        prefetchExecutor.shutdownNow();
+        leaseExecutor.shutdownNow();
+        if (local() && workerId >= 0) {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId), leaseToken);
+        }
+    }
+
+    /**
+     * 是否为本地id模式，本地模式下调用方应直接使用 next() 生成的id
+     */
+    public boolean local() {
+        return "snowflake".equals(mode);
+    }
+
     public long next(String keyPrefix){
+        if (local()) {
+            return nextLocal();
+        }
+        if ("segment".equals(mode)) {
+            return nextFromSegment(keyPrefix);
+        }
         //1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowTime = now.toEpochSecond(ZoneOffset.UTC);
-        long timeStamp = nowTime - BEGIN_TIMESTAMP;
+        long timeStamp = timestamp(now);
 
         //2.生成序列号
-        //2.1.获取当天的日期，精确到天(以天来维护比一时间戳的秒来为key生成序列号，更节省了内存，更方便统计)
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
-        //时间戳左移32位 逻辑或 序列号 完成时间戳和序列号的组合
+        Long count = stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, now));
+        return compose(timeStamp, count);
+    }
+
+    private long nextFromSegment(String keyPrefix) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null) {
+                //1.无锁分配
+                long count = segment.cursor.incrementAndGet();
+                if (count <= segment.end) {
+                    if (count == segment.prefetchAt) {
+                        prefetch(keyPrefix, buffer);
+                    }
+                    return compose(segment.timestamp, count);
+                }
+            }
+            //2.号段用完，切换到下一段
+            switchSegment(keyPrefix, buffer, segment);
+        }
+    }
+
+    private void switchSegment(String keyPrefix, SegmentBuffer buffer, Segment exhausted) {
+        synchronized (buffer) {
+            while (buffer.current == exhausted) {
+                if (buffer.next != null) {
+                    buffer.current = buffer.next;
+                    buffer.next = null;
+                    return;
+                }
+                if (!buffer.loading) {
+                    buffer.current = reserve(keyPrefix);
+                    return;
+                }
+                //异步预留还没完成，等待，先用后预留的号段会导致id变小
+                try {
+                    buffer.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("等待id号段被中断", e);
+                }
+            }
+        }
+    }
+
+    private void prefetch(String keyPrefix, SegmentBuffer buffer) {
+        synchronized (buffer) {
+            if (buffer.loading || buffer.next != null) {
+                return;
+            }
+            buffer.loading = true;
+        }
+        prefetchExecutor.execute(() -> {
+            Segment segment = null;
+            try {
+                segment = reserve(keyPrefix);
+            } catch (Exception e) {
+                //预留失败，号段用完时同步预留
+                log.error("预留id号段失败，keyPrefix：{}", keyPrefix, e);
+            }
+            synchronized (buffer) {
+                buffer.next = segment;
+                buffer.loading = false;
+                buffer.notifyAll();
+            }
+        });
+    }
+
+    private long nextLocal() {
+        if (System.currentTimeMillis() >= leaseExpireAt) {
+            throw new IllegalStateException("workerId租约已失效，暂停生成id");
+        }
+        long epoch = BEGIN_TIMESTAMP * 1000;
+        while (true) {
+            long state = lastState.get();
+            long last = state >>> SEQUENCE_BITS;
+            long now = System.currentTimeMillis() - epoch;
+            long next;
+            if (now > last) {
+                next = now << SEQUENCE_BITS;
+            } else {
+                //同一毫秒或时钟回拨，沿用上次的时间戳
+                if (last - now > MAX_BACKWARD_MILLIS) {
+                    throw new IllegalStateException("时钟回拨" + (last - now) + "ms，暂停生成id");
+                }
+                if ((state & MAX_SEQUENCE) == MAX_SEQUENCE) {
+                    //序列号用完，等待下一毫秒
+                    Thread.yield();
+                    continue;
+                }
+                next = state + 1;
+            }
+            if (lastState.compareAndSet(state, next)) {
+                return LOCAL_FLAG | (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | (long) workerId << SEQUENCE_BITS | (next & MAX_SEQUENCE);
+            }
+        }
+    }
+
+    //从随机位置开始尝试 SET id:worker:{n} token NX PX ttl
+    private boolean acquireLease() {
+        int start = RandomUtil.randomInt(MAX_WORKERS);
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            int id = (start + i) % MAX_WORKERS;
+            long begin = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, leaseToken, ID_WORKER_LEASE_TTL, TimeUnit.MILLISECONDS);
+            if (BooleanUtil.isTrue(success)) {
+                workerId = id;
+                leaseExpireAt = begin + ID_WORKER_LEASE_TTL;
+                log.info("租用workerId：{}", id);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void renewLease() {
+        try {
+            long begin = System.currentTimeMillis();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId),
+                    leaseToken, String.valueOf(ID_WORKER_LEASE_TTL));
+            if (renewed != null && renewed == 1) {
+                leaseExpireAt = begin + ID_WORKER_LEASE_TTL;
+                return;
+            }
+            //租约已过期且可能被其他节点占用，立即停止生成并重新租用
+            log.error("workerId租约丢失：{}，重新租用", workerId);
+            leaseExpireAt = 0;
+            if (!acquireLease()) {
+                log.error("没有可用的workerId");
+            }
+        } catch (Exception e) {
+            //redis不可用时租约到期后自动停止生成
+            log.error("workerId租约续期失败：{}", workerId, e);
+        }
+    }
+
+    //INCRBY icr:{keyPrefix}:{date} step
+    private Segment reserve(String keyPrefix) {
+        LocalDateTime now = LocalDateTime.now();
+        Long end = stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, now), segmentStep);
+        if (end == null) {
+            throw new IllegalStateException("预留id号段失败");
+        }
+        long start = end - segmentStep;
+        return new Segment(timestamp(now), start, end, start + Math.max(1, segmentStep * 4L / 5));
+    }
+
+    //时间戳部分
+    public long timestamp(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+    }
+
+    //序列号的key，可以由调用方自行INCR（如秒杀lua脚本在校验通过之后才生成序列号）
+    public String countKey(String keyPrefix, LocalDateTime now) {
+        //获取当天的日期，精确到天(以天来维护比一时间戳的秒来为key生成序列号，更节省了内存，更方便统计)
+        String date = now.format(DATE_FORMATTER);
+        return "icr:" + keyPrefix + ":" + date;
+    }
+
+    //时间戳左移32位 逻辑或 序列号 完成时间戳和序列号的组合
+    public long compose(long timeStamp, long count) {
         return timeStamp << COUNT_BITS | count;
     }
 
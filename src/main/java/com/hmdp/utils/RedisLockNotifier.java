@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_UNLOCK_CHANNEL;
+
+/**
+ * RedisLockNotifier  分布式锁释放通知
+ *
+ * SimpleRedisLock 等待锁时不轮询redis，而是等待锁释放的通知
+ * 1.锁完全释放时unlock脚本向 lock:unlock 频道发布锁的key，每个节点只订阅这一个频道
+ * 2.本节点每个锁key一个公平信号量，收到通知时只唤醒等待最久的一个线程，避免所有等待线程同时去抢锁
+ * 3.第一次获取锁失败后先 subscribe 再重试，重试和开始等待之间的释放通知不会丢失
+ * 4.被唤醒的线程没抢到锁（被其他节点抢到）会继续等待下一次释放；
+ *   等待时间不超过锁的剩余TTL，通知丢失或持有者宕机时锁过期后也能继续竞争
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class RedisLockNotifier implements MessageListener {
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 等待同一个锁的线程
+     */
+    public static class Subscription {
+        private final String key;
+        private final Semaphore semaphore = new Semaphore(0, true);
+        private int subscribers;
+
+        Subscription(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 等待锁释放的通知
+         * @return true 收到通知，false 超时
+         */
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return semaphore.tryAcquire(timeout, unit);
+        }
+    }
+
+    // 锁key -> 等待该锁的线程
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    public RedisLockNotifier(RedisMessageListenerContainer listenerContainer) {
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(LOCK_UNLOCK_CHANNEL));
+    }
+
+    /**
+     * 开始等待锁，之后的释放通知不会丢失；应在再次尝试获取锁之前调用
+     */
+    public Subscription subscribe(String key) {
+        return subscriptions.compute(key, (k, subscription) -> {
+            if (subscription == null) {
+                subscription = new Subscription(k);
+            }
+            subscription.subscribers++;
+            return subscription;
+        });
+    }
+
+    /**
+     * 结束等待，没有线程在等待时移除，锁key很多（如每个用户一个）时不会一直占用内存
+     */
+    public void unsubscribe(Subscription subscription) {
+        subscriptions.computeIfPresent(subscription.key, (k, current) ->
+                current == subscription && --current.subscribers == 0 ? null : current);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        subscriptions.computeIfPresent(key, (k, subscription) -> {
+            // 只唤醒一个线程；还没开始等待的线程稍后拿到许可直接重试，许可数不超过等待的线程数
+            if (subscription.semaphore.availablePermits() < subscription.subscribers) {
+                subscription.semaphore.release();
+            }
+            return subscription;
+        });
+    }
+}
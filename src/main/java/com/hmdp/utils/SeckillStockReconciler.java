@@ -0,0 +1,513 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_RECONCILE_NAME;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * SeckillStockReconciler  redis秒杀库存与数据库的对账
+ *
+ * 订单消息丢失或进入死信队列后，redis中已扣减的库存和已下单的用户在数据库中没有对应的订单，之前没有任何手段发现
+ * 1.SCAN seckill:stock:* 得到所有优惠券（包括分段库存 seckill:stock:{voucherId:i}），每次只取一批key，不阻塞redis
+ * 2.按批对比：redis库存(分段求和) 与 tb_seckill_voucher.stock，redis订单集合大小(SCARD) 与 tb_voucher_order 订单数(group by)
+ * 3.消息还在队列中时redis和数据库本来就不一致，只有差异持续 stable-millis 不变才认为是漂移
+ *   stable-millis 应大于 min-idle-millis × max-deliveries，保证消息已经重试完或进入死信队列
+ * 4.修复前重新对比一次，结果有变化（期间有新的抢购或订单写入）时不修复，重新计算持续时间
+ * 5.修复：SSCAN订单集合，按批查询数据库，没有订单的用户先记录下来，连续两次对账都没有订单才SREM，
+ *   避免移除SSCAN期间刚抢购成功、消息还在队列中的用户；数据库有订单但集合中没有的用户SADD；
+ *   库存用INCRBY补差值，不覆盖对账期间的正常扣减，补回库存后通知所有节点清除售罄标记
+ * 6.多个节点通过 SimpleRedisLock(看门狗续期)保证同时只有一个在对账；指标通过 scrape() 输出Prometheus文本格式
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.seckill.reconcile.repair:true}")
+    private boolean repair;
+
+    @Value("${hmdp.seckill.reconcile.interval-millis:60000}")
+    private long intervalMillis;
+
+    @Value("${hmdp.seckill.reconcile.stable-millis:300000}")
+    private long stableMillis;
+
+    @Value("${hmdp.seckill.reconcile.batch-size:200}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.reconcile.pause-millis:20}")
+    private long pauseMillis;
+
+    /**
+     * 一个优惠券在某一时刻的对账结果
+     */
+    private static class Snapshot {
+        final long redisStock;
+        final long dbStock;
+        final long redisOrders;
+        final long dbOrders;
+        long firstSeen;
+
+        Snapshot(long redisStock, long dbStock, long redisOrders, long dbOrders) {
+            this.redisStock = redisStock;
+            this.dbStock = dbStock;
+            this.redisOrders = redisOrders;
+            this.dbOrders = dbOrders;
+        }
+
+        long stockDrift() {
+            return dbStock - redisStock;
+        }
+
+        long orderDrift() {
+            return redisOrders - dbOrders;
+        }
+
+        boolean drifted() {
+            return stockDrift() != 0 || orderDrift() != 0;
+        }
+
+        boolean sameAs(Snapshot other) {
+            return other != null && redisStock == other.redisStock && dbStock == other.dbStock
+                    && redisOrders == other.redisOrders && dbOrders == other.dbOrders;
+        }
+    }
+
+    // 存在差异的优惠券，用于判断差异是否持续不变
+    private volatile Map<Long, Snapshot> drifts = new ConcurrentHashMap<>();
+
+    // 优惠券 -> 上一次修复时订单集合中没有订单的用户，下一次修复时仍没有订单才移除
+    private final Map<Long, Set<String>> ghostSuspects = new ConcurrentHashMap<>();
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder stockRepaired = new LongAdder();
+    private final LongAdder ordersAdded = new LongAdder();
+    private final LongAdder ordersRemoved = new LongAdder();
+    private volatile long lastRunAt;
+    private volatile long lastDurationMillis;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final ScheduledExecutorService reconcileExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    void init() {
+        if (enabled) {
+            reconcileExecutor.scheduleWithFixedDelay(this::reconcile, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void destroy() {
+        reconcileExecutor.shutdownNow();
+    }
+
+    /**
+     * 异步执行一次对账
+     * @return false 本节点已有对账在执行
+     */
+    public boolean start() {
+        if (running.get()) {
+            return false;
+        }
+        reconcileExecutor.execute(this::reconcile);
+        return true;
+    }
+
+    private void reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        //对账耗时不确定，不指定超时时间，由看门狗续期
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, LOCK_SECKILL_RECONCILE_NAME);
+        boolean isLock = false;
+        try {
+            isLock = lock.tryLock(0, -1, TimeUnit.MILLISECONDS);
+            if (!isLock) {
+                return;
+            }
+            long begin = System.currentTimeMillis();
+            reconcileAll();
+            lastRunAt = System.currentTimeMillis();
+            lastDurationMillis = lastRunAt - begin;
+            runs.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failures.increment();
+            log.error("秒杀库存对账异常", e);
+        } finally {
+            if (isLock) {
+                lock.unlock();
+            }
+            running.set(false);
+        }
+    }
+
+    private void reconcileAll() throws InterruptedException {
+        //1.SCAN出所有优惠券及其分段数，0表示没有分段
+        Map<Long, Integer> vouchers = scanVouchers();
+        Map<Long, Snapshot> current = new ConcurrentHashMap<>();
+        Set<Long> drifting = new HashSet<>();
+        List<Long> ids = new ArrayList<>(vouchers.keySet());
+        for (int from = 0; from < ids.size() && !Thread.currentThread().isInterrupted(); from += batchSize) {
+            List<Long> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            //2.按批对比
+            Map<Long, Snapshot> snapshots = compare(batch, vouchers);
+            checked.add(snapshots.size());
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Long, Snapshot> entry : snapshots.entrySet()) {
+                Long voucherId = entry.getKey();
+                Snapshot snapshot = entry.getValue();
+                if (!snapshot.drifted()) {
+                    continue;
+                }
+                //3.和上一次的结果相同则保留首次发现的时间，持续 stableMillis 才修复
+                Snapshot previous = drifts.get(voucherId);
+                snapshot.firstSeen = snapshot.sameAs(previous) ? previous.firstSeen : now;
+                current.put(voucherId, snapshot);
+                if (now - snapshot.firstSeen < stableMillis) {
+                    continue;
+                }
+                log.warn("秒杀库存漂移，voucherId：{}，redis库存：{}，数据库库存：{}，redis订单数：{}，数据库订单数：{}",
+                        voucherId, snapshot.redisStock, snapshot.dbStock, snapshot.redisOrders, snapshot.dbOrders);
+                if (!repair) {
+                    continue;
+                }
+                //4.修复前重新对比，有变化说明还有抢购或订单写入，重新计算持续时间
+                Snapshot latest = compare(Collections.singletonList(voucherId), vouchers).get(voucherId);
+                if (latest == null || !latest.sameAs(snapshot)) {
+                    if (latest != null && latest.drifted()) {
+                        latest.firstSeen = now;
+                        current.put(voucherId, latest);
+                    } else {
+                        current.remove(voucherId);
+                    }
+                    continue;
+                }
+                //5.修复后从漂移列表移除，下一轮重新对比
+                repair(voucherId, vouchers.get(voucherId), snapshot);
+                current.remove(voucherId);
+                drifting.add(voucherId);
+            }
+            Thread.sleep(pauseMillis);
+        }
+        drifts = current;
+        // 不再有差异的优惠券，之前记录的用户不再需要确认
+        drifting.addAll(current.keySet());
+        ghostSuspects.keySet().retainAll(drifting);
+    }
+
+    // SCAN seckill:stock:*，解析 seckill:stock:voucherId 和 seckill:stock:{voucherId:i}
+    private Map<Long, Integer> scanVouchers() {
+        Map<Long, Integer> vouchers = new TreeMap<>();
+        ScanOptions options = ScanOptions.scanOptions().match(SECKILL_STOCK_KEY + "*").count(batchSize).build();
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            while (cursor.hasNext()) {
+                String suffix = new String(cursor.next(), StandardCharsets.UTF_8).substring(SECKILL_STOCK_KEY.length());
+                if (suffix.startsWith("{") && suffix.endsWith("}")) {
+                    List<String> parts = StrUtil.split(suffix.substring(1, suffix.length() - 1), ':');
+                    if (parts.size() == 2 && StrUtil.isNumeric(parts.get(0)) && StrUtil.isNumeric(parts.get(1))) {
+                        vouchers.merge(Long.parseLong(parts.get(0)), Integer.parseInt(parts.get(1)) + 1, Math::max);
+                    }
+                } else if (StrUtil.isNumeric(suffix)) {
+                    vouchers.putIfAbsent(Long.parseLong(suffix), 0);
+                }
+            }
+        }
+        return vouchers;
+    }
+
+    private Map<Long, Snapshot> compare(List<Long> batch, Map<Long, Integer> vouchers) {
+        //1.数据库库存和订单数，每批两条SQL
+        Map<Long, Integer> dbStock = seckillVoucherService.listByIds(batch).stream()
+                .filter(v -> v.getStock() != null)
+                .collect(Collectors.toMap(SeckillVoucher::getVoucherId, SeckillVoucher::getStock));
+        Map<Long, Long> dbOrders = new HashMap<>(batch.size() * 2);
+        List<Map<String, Object>> counts = voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "count(*) AS total")
+                .in("voucher_id", batch)
+                .groupBy("voucher_id"));
+        for (Map<String, Object> row : counts) {
+            dbOrders.put(((Number) row.get("voucher_id")).longValue(), ((Number) row.get("total")).longValue());
+        }
+
+        //2.redis库存和订单集合大小，一次pipeline
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long voucherId : batch) {
+                for (String key : stockKeys(voucherId, vouchers.get(voucherId))) {
+                    conn.get(key);
+                }
+                for (String key : orderKeys(voucherId, vouchers.get(voucherId))) {
+                    conn.sCard(key);
+                }
+            }
+            return null;
+        });
+
+        Map<Long, Snapshot> snapshots = new HashMap<>(batch.size() * 2);
+        int i = 0;
+        for (Long voucherId : batch) {
+            int keys = Math.max(vouchers.get(voucherId), 1);
+            long redisStock = 0;
+            long redisOrders = 0;
+            for (int k = 0; k < keys; k++) {
+                Object stock = results.get(i++);
+                redisStock += stock == null ? 0 : Long.parseLong(stock.toString());
+            }
+            for (int k = 0; k < keys; k++) {
+                Object size = results.get(i++);
+                redisOrders += size == null ? 0 : (Long) size;
+            }
+            // 数据库中已删除的优惠券不对账
+            Integer stock = dbStock.get(voucherId);
+            if (stock != null) {
+                snapshots.put(voucherId, new Snapshot(redisStock, stock, redisOrders, dbOrders.getOrDefault(voucherId, 0L)));
+            }
+        }
+        return snapshots;
+    }
+
+    private void repair(Long voucherId, int segments, Snapshot snapshot) {
+        //1.SSCAN订单集合，移除连续两次都没有订单的用户，其余的记录下来下次确认
+        Set<String> suspects = ghostSuspects.getOrDefault(voucherId, Collections.emptySet());
+        Set<String> nextSuspects = new HashSet<>();
+        long removed = 0;
+        for (String key : orderKeys(voucherId, segments)) {
+            removed += removeGhostUsers(voucherId, key, suspects, nextSuspects);
+        }
+        if (nextSuspects.isEmpty()) {
+            ghostSuspects.remove(voucherId);
+        } else {
+            ghostSuspects.put(voucherId, nextSuspects);
+        }
+        //2.数据库中有订单但集合中没有的用户，补回集合，避免重复下单
+        long added = 0;
+        if (snapshot.dbOrders > snapshot.redisOrders - removed) {
+            added = addMissingUsers(voucherId, segments);
+        }
+        //3.库存补差值
+        long delta = snapshot.stockDrift();
+        if (delta != 0) {
+            adjustStock(voucherId, segments, delta);
+        }
+        stockRepaired.add(Math.abs(delta));
+        ordersRemoved.add(removed);
+        ordersAdded.add(added);
+        log.warn("秒杀库存已修复，voucherId：{}，库存调整：{}，移除用户：{}，补回用户：{}，待确认用户：{}",
+                voucherId, delta, removed, added, nextSuspects.size());
+    }
+
+    private long removeGhostUsers(Long voucherId, String key, Set<String> suspects, Set<String> nextSuspects) {
+        long removed = 0;
+        List<String> users = new ArrayList<>(batchSize);
+        ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(key, options)) {
+            while (cursor.hasNext()) {
+                users.add(cursor.next());
+                if (users.size() >= batchSize || !cursor.hasNext()) {
+                    removed += removeGhostUsers(voucherId, key, users, suspects, nextSuspects);
+                    users.clear();
+                }
+            }
+        }
+        return removed;
+    }
+
+    private long removeGhostUsers(Long voucherId, String key, List<String> users,
+                                  Set<String> suspects, Set<String> nextSuspects) {
+        List<Long> userIds = users.stream().filter(StrUtil::isNumeric).map(Long::valueOf).collect(Collectors.toList());
+        Set<String> ordered = userIds.isEmpty() ? Collections.emptySet()
+                : voucherOrderMapper.selectOrderedUserIds(voucherId, userIds).stream()
+                .map(String::valueOf)
+                .collect(Collectors.toSet());
+        List<Object> ghosts = new ArrayList<>();
+        for (String user : users) {
+            if (ordered.contains(user)) {
+                continue;
+            }
+            if (suspects.contains(user)) {
+                ghosts.add(user);
+            } else {
+                nextSuspects.add(user);
+            }
+        }
+        if (ghosts.isEmpty()) {
+            return 0;
+        }
+        Long removed = stringRedisTemplate.opsForSet().remove(key, ghosts.toArray());
+        return removed == null ? 0 : removed;
+    }
+
+    // 按订单id游标分页读取该优惠券的订单，pipeline SADD 到用户所属的订单集合
+    private long addMissingUsers(Long voucherId, int segments) {
+        long added = 0;
+        long lastId = 0;
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderMapper.selectUsersAfter(voucherId, lastId, batchSize);
+            if (orders.isEmpty()) {
+                break;
+            }
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (VoucherOrder order : orders) {
+                    conn.sAdd(orderKey(voucherId, segments, order.getUserId()), order.getUserId().toString());
+                }
+                return null;
+            });
+            added += results.stream().filter(Objects::nonNull).mapToLong(r -> (Long) r).sum();
+            lastId = orders.get(orders.size() - 1).getId();
+            if (orders.size() < batchSize) {
+                break;
+            }
+        }
+        return added;
+    }
+
+    // 补库存加到第一个分段；扣库存依次从各分段扣减，不扣成负数
+    private void adjustStock(Long voucherId, int segments, long delta) {
+        List<String> keys = stockKeys(voucherId, segments);
+        if (delta > 0) {
+            stringRedisTemplate.opsForValue().increment(keys.get(0), delta);
+            // 补回库存后通知所有节点清除售罄标记
+            soldOutRegistry.replenish(voucherId);
+            return;
+        }
+        long remaining = -delta;
+        for (String key : keys) {
+            String value = stringRedisTemplate.opsForValue().get(key);
+            long take = Math.min(remaining, value == null ? 0 : Math.max(Long.parseLong(value), 0));
+            if (take > 0) {
+                stringRedisTemplate.opsForValue().decrement(key, take);
+                remaining -= take;
+            }
+            if (remaining == 0) {
+                break;
+            }
+        }
+    }
+
+    private static List<String> stockKeys(Long voucherId, int segments) {
+        List<String> keys = new ArrayList<>(Math.max(segments, 1));
+        if (segments == 0) {
+            keys.add(SECKILL_STOCK_KEY + voucherId);
+        }
+        for (int i = 0; i < segments; i++) {
+            keys.add(SeckillStockSegments.stockKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    private static List<String> orderKeys(Long voucherId, int segments) {
+        List<String> keys = new ArrayList<>(Math.max(segments, 1));
+        if (segments == 0) {
+            keys.add(SECKILL_ORDER_KEY + voucherId);
+        }
+        for (int i = 0; i < segments; i++) {
+            keys.add(SeckillStockSegments.orderKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    // 用户所属的订单集合，和 SeckillStockSegments 的路由一致
+    private static String orderKey(Long voucherId, int segments, Long userId) {
+        if (segments == 0) {
+            return SECKILL_ORDER_KEY + voucherId;
+        }
+        return SeckillStockSegments.orderKey(voucherId, (int) Math.floorMod(userId, (long) segments));
+    }
+
+    /**
+     * 对账指标，Prometheus文本格式
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(1024);
+        appendMetric(sb, "seckill_reconcile_runs_total", "counter", "Completed reconciliation runs.", runs.sum());
+        appendMetric(sb, "seckill_reconcile_failures_total", "counter", "Failed reconciliation runs.", failures.sum());
+        appendMetric(sb, "seckill_reconcile_vouchers_checked_total", "counter", "Vouchers compared between Redis and MySQL.", checked.sum());
+        appendMetric(sb, "seckill_reconcile_stock_repaired_total", "counter", "Absolute stock adjusted in Redis.", stockRepaired.sum());
+        appendMetric(sb, "seckill_reconcile_orders_added_total", "counter", "Users added back to Redis order sets.", ordersAdded.sum());
+        appendMetric(sb, "seckill_reconcile_orders_removed_total", "counter", "Users without orders removed from Redis order sets.", ordersRemoved.sum());
+        appendMetric(sb, "seckill_reconcile_last_run_timestamp_seconds", "gauge", "Finish time of the last run.", lastRunAt / 1000);
+        appendMetric(sb, "seckill_reconcile_last_duration_seconds", "gauge", "Duration of the last run.", lastDurationMillis / 1000.0);
+        Map<Long, Snapshot> sorted = new TreeMap<>(drifts);
+        appendMetric(sb, "seckill_reconcile_drifting_vouchers", "gauge", "Vouchers whose Redis counters differ from MySQL.", sorted.size());
+        sb.append("# HELP seckill_stock_drift Per voucher difference, stock is MySQL minus Redis, orders is Redis minus MySQL.\n");
+        sb.append("# TYPE seckill_stock_drift gauge\n");
+        for (Map.Entry<Long, Snapshot> entry : sorted.entrySet()) {
+            Snapshot snapshot = entry.getValue();
+            sb.append("seckill_stock_drift{voucher_id=\"").append(entry.getKey()).append("\",kind=\"stock\"} ")
+                    .append(snapshot.stockDrift()).append('\n');
+            sb.append("seckill_stock_drift{voucher_id=\"").append(entry.getKey()).append("\",kind=\"orders\"} ")
+                    .append(snapshot.orderDrift()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void appendMetric(StringBuilder sb, String name, String type, String help, Number value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+}
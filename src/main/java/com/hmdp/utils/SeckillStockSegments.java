@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_KEY;
+
+/**
+ * SeckillStockSegments  分段秒杀库存（可选）
+ *
+ * 原来一个优惠券只有一个库存key和一个订单key，集群模式下整场秒杀都落在同一个分片上
+ * 1.hmdp.seckill.stock-segments 大于1时开启，库存平均拆分到K个分段
+ *   key带hash tag：seckill:stock:{voucherId:i}、seckill:order:{voucherId:i}，同一分段的两个key在同一个slot，不同分段分散到不同slot
+ * 2.用户按id取模路由到所属分段，一人一单只在所属分段的订单key中记录和判断，保证不会重复下单
+ * 3.所属分段库存不足时依次到其他分段扣减，扣减成功后再把用户记录到所属分段；
+ *   如果这期间同一个用户已经下单成功，把扣减的库存还回去
+ * 4.秒杀时间也按分段写入 seckill:window:{voucherId:i}，在所属分段的脚本中判断
+ * 5.订单消息和订单id不在分段的slot中，由调用方在抢购成功后写入stream.orders，写入失败时调用rollback
+ *
+ * 修改分段数只对之后新增的优惠券生效，已有的优惠券需要重新拆分库存
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class SeckillStockSegments {
+
+    public static final int SOLD_OUT = -1;
+    public static final int DUPLICATE = -2;
+    public static final int NOT_STARTED = -4;
+    public static final int ENDED = -5;
+
+    private static final DefaultRedisScript<Long> SEGMENT_SCRIPT;
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+    static {
+        SEGMENT_SCRIPT = new DefaultRedisScript<>();
+        SEGMENT_SCRIPT.setLocation(new ClassPathResource("seckill_segment.lua"));
+        SEGMENT_SCRIPT.setResultType(Long.class);
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Value("${hmdp.seckill.stock-segments:1}")
+    private int segments;
+
+    public boolean enabled() {
+        return segments > 1;
+    }
+
+    public int segments() {
+        return segments;
+    }
+
+    /**
+     * 拆分库存，余数分给前面的分段；每个分段写入秒杀时间
+     */
+    public void init(Long voucherId, int stock, LocalDateTime beginTime, LocalDateTime endTime) {
+        Map<String, String> window = SeckillWindowCache.fields(
+                SeckillWindowCache.toMillis(beginTime), SeckillWindowCache.toMillis(endTime));
+        for (int i = 0; i < segments; i++) {
+            int segmentStock = stock / segments + (i < stock % segments ? 1 : 0);
+            stringRedisTemplate.opsForHash().putAll(windowKey(voucherId, i), window);
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(segmentStock));
+        }
+    }
+
+    /**
+     * 抢购
+     * @return 扣减库存的分段序号，SOLD_OUT 所有分段库存不足，DUPLICATE 重复下单，NOT_STARTED 未开始，ENDED 已结束
+     */
+    public int admit(Long voucherId, Long userId) {
+        int home = home(userId);
+        String user = userId.toString();
+        //1.在所属分段中抢购
+        Long r = stringRedisTemplate.execute(SEGMENT_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home), windowKey(voucherId, home)),
+                user, String.valueOf(System.currentTimeMillis()));
+        if (r == 0) {
+            return home;
+        }
+        if (r == 2) {
+            return DUPLICATE;
+        }
+        if (r == 4 || r == 5) {
+            return (int) -r;
+        }
+        //2.所属分段库存不足，依次到其他分段扣减
+        for (int i = 1; i < segments; i++) {
+            int segment = (home + i) % segments;
+            Long taken = stringRedisTemplate.execute(TAKE_SCRIPT, Collections.singletonList(stockKey(voucherId, segment)));
+            if (taken == 0) {
+                continue;
+            }
+            //3.记录到所属分段，已存在说明同一用户的另一个请求已经成功，还回库存
+            Long added = stringRedisTemplate.opsForSet().add(orderKey(voucherId, home), user);
+            if (added == null || added == 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, segment));
+                // 这期间其他请求可能已经标记了售罄
+                soldOutRegistry.replenish(voucherId);
+                return DUPLICATE;
+            }
+            return segment;
+        }
+        return SOLD_OUT;
+    }
+
+    /**
+     * 抢购成功但后续处理失败，还回库存并移除用户，通知所有节点清除售罄标记
+     */
+    public void rollback(Long voucherId, Long userId, int segment) {
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, segment));
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, home(userId)), userId.toString());
+        soldOutRegistry.replenish(voucherId);
+    }
+
+    private int home(Long userId) {
+        return (int) Math.floorMod(userId, (long) segments);
+    }
+
+    public static String stockKey(Long voucherId, int segment) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + segment + "}";
+    }
+
+    public static String orderKey(Long voucherId, int segment) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + segment + "}";
+    }
+
+    public static String windowKey(Long voucherId, int segment) {
+        return SECKILL_WINDOW_KEY + "{" + voucherId + ":" + segment + "}";
+    }
+}
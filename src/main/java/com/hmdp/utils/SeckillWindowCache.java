@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_CACHE_CAPACITY;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_CACHE_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_MISSING_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_KEY;
+
+/**
+ * SeckillWindowCache  秒杀券开始、结束时间的本地缓存
+ *
+ * redis优化后的秒杀去掉了开始、结束时间的判断，直接查数据库又会在热点路径上增加一次数据库访问
+ * 1.新增秒杀券时开始、结束时间(毫秒)和库存一起写入redis hash seckill:window:{voucherId}，lua脚本中原子判断
+ * 2.本地缓存每个秒杀券的时间，未开始和已结束的请求直接拒绝，不访问redis
+ * 3.本地缓存 SECKILL_WINDOW_CACHE_TTL 后重新从redis读取；redis中没有时（之前新增的秒杀券）从数据库读取并写回redis
+ * 4.voucherId来自请求路径，本地缓存有容量上限(LRU)；不存在的秒杀券缓存 SECKILL_WINDOW_MISSING_TTL，
+ *   期间直接拒绝，不执行lua脚本，遍历id的请求不会撑满内存，也不会每次都查询数据库
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class SeckillWindowCache {
+
+    public static final int OPEN = 0;
+    public static final int NOT_STARTED = 4;
+    public static final int ENDED = 5;
+    public static final int NOT_FOUND = 6;
+
+    private static class Window {
+        final long begin;
+        final long end;
+
+        Window(long begin, long end) {
+            this.begin = begin;
+            this.end = end;
+        }
+    }
+
+    // 不存在的秒杀券
+    private static final Window MISSING = new Window(0, 0);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    private final Cache<Long, Window> windows =
+            CacheUtil.newLRUCache(SECKILL_WINDOW_CACHE_CAPACITY, SECKILL_WINDOW_CACHE_TTL);
+
+    /**
+     * 判断当前是否在秒杀时间内
+     * @return OPEN、NOT_STARTED、ENDED 或 NOT_FOUND
+     */
+    public int check(Long voucherId, long now) {
+        // false: 读取不刷新过期时间
+        Window window = windows.get(voucherId, false);
+        if (window == null) {
+            window = load(voucherId);
+        }
+        if (window == MISSING) {
+            return NOT_FOUND;
+        }
+        if (now < window.begin) {
+            return NOT_STARTED;
+        }
+        if (now > window.end) {
+            return ENDED;
+        }
+        return OPEN;
+    }
+
+    /**
+     * 写入redis和本地缓存
+     */
+    public void save(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime) {
+        long begin = toMillis(beginTime);
+        long end = toMillis(endTime);
+        stringRedisTemplate.opsForHash().putAll(SECKILL_WINDOW_KEY + voucherId, fields(begin, end));
+        windows.put(voucherId, new Window(begin, end));
+    }
+
+    public static Map<String, String> fields(long begin, long end) {
+        Map<String, String> fields = new HashMap<>(4);
+        fields.put("begin", String.valueOf(begin));
+        fields.put("end", String.valueOf(end));
+        return fields;
+    }
+
+    public static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private Window load(Long voucherId) {
+        //1.从redis读取
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_WINDOW_KEY + voucherId, Arrays.asList("begin", "end"));
+        if (values != null && values.get(0) != null && values.get(1) != null) {
+            Window window = new Window(Long.parseLong(StrUtil.toString(values.get(0))), Long.parseLong(StrUtil.toString(values.get(1))));
+            windows.put(voucherId, window);
+            return window;
+        }
+        //2.redis中没有，从数据库读取并写回redis
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null || voucher.getBeginTime() == null || voucher.getEndTime() == null) {
+            //3.不是秒杀券，短时间缓存，期间直接拒绝
+            windows.put(voucherId, MISSING, SECKILL_WINDOW_MISSING_TTL);
+            return MISSING;
+        }
+        Window window = new Window(toMillis(voucher.getBeginTime()), toMillis(voucher.getEndTime()));
+        save(voucherId, voucher.getBeginTime(), voucher.getEndTime());
+        return window;
+    }
+}
@@ -0,0 +1,162 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.NumberUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_SHOP_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * ShopBloomFilter  商铺id的布隆过滤器，解决缓存穿透
+ *
+ * 缓存空值的方式会让随机id把redis塞满无用的key，并且每个新id仍会查一次数据库
+ * 1.启动后由tb_shop的id分批构建，之后定时重建（删除的店铺无法从布隆过滤器中移除，只能重建）
+ * 2.新增商铺时调用add增量添加，并通过redis发布订阅通知其他节点添加，否则其他节点在下次重建前查不到新商铺
+ * 3.注册到CacheClient，在查询redis和数据库之前判断，不存在的id直接返回
+ * 4.重建期间新增的id同时写入新旧两个过滤器，切换后不会丢失
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class ShopBloomFilter implements MessageListener {
+
+    // 每批查询的id数
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Value("${hmdp.bloom.shop.fpp:0.01}")
+    private double fpp;
+
+    @Value("${hmdp.bloom.shop.rebuild-interval-minutes:60}")
+    private long rebuildIntervalMinutes;
+
+    // 正在使用的过滤器，未构建完成时为null(全部放行)
+    private volatile BloomFilter current;
+
+    // 正在重建的过滤器
+    private volatile BloomFilter building;
+
+    private final ScheduledExecutorService rebuildExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    void init() {
+        cacheClient.registerFilter(CACHE_SHOP_KEY, this::mightContain);
+        listenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_SHOP_ADD_CHANNEL));
+        rebuildExecutor.scheduleWithFixedDelay(this::rebuild, 0, rebuildIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void destroy() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 新增商铺，添加到本节点并通知所有节点添加（重复添加没有影响）
+     */
+    public void add(Long id) {
+        if (id == null) {
+            return;
+        }
+        put(id);
+        stringRedisTemplate.convertAndSend(BLOOM_SHOP_ADD_CHANNEL, id.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (NumberUtil.isLong(body)) {
+            put(Long.parseLong(body));
+        }
+    }
+
+    private void put(long id) {
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.put(id);
+        }
+        filter = building;
+        if (filter != null) {
+            filter.put(id);
+        }
+    }
+
+    public boolean mightContain(Object id) {
+        BloomFilter filter = current;
+        if (filter == null) {
+            // 还未构建完成，放行
+            return true;
+        }
+        if (id instanceof Number) {
+            return filter.mightContain(((Number) id).longValue());
+        }
+        String str = String.valueOf(id);
+        // 不是数字的id在数据库中一定不存在
+        return NumberUtil.isLong(str) && filter.mightContain(Long.parseLong(str));
+    }
+
+    // 分批读取所有商铺id，重建过滤器
+    public void rebuild() {
+        try {
+            long begin = System.currentTimeMillis();
+            int count = shopService.count();
+            // 预留增长空间，避免新增商铺后误判率升高
+            BloomFilter filter = new BloomFilter(Math.max(count * 2L, LOAD_BATCH_SIZE), fpp);
+            building = filter;
+            long lastId = 0;
+            while (true) {
+                // 按id游标分页 where id > ? order by id limit ?
+                List<Shop> shops = shopService.query()
+                        .select("id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + LOAD_BATCH_SIZE)
+                        .list();
+                for (Shop shop : shops) {
+                    filter.put(shop.getId());
+                }
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            current = filter;
+            log.info("商铺布隆过滤器重建完成，商铺数：{}，位数：{}，哈希函数数：{}，耗时：{}ms",
+                    count, filter.bitSize(), filter.hashFunctions(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("商铺布隆过滤器重建失败", e);
+        } finally {
+            building = null;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * ShopCacheWarmer  商铺缓存预热
+ *
+ * 发布或redis主从切换后缓存是空的，所有请求都会打到数据库
+ * 1.通过接口手动触发，或配置 on-startup 在启动时执行（默认关闭，多节点时只在一个节点开启），同时只执行一个
+ * 2.按id游标分批读取tb_shop，不会一次把整张表读到内存
+ * 3.每批通过pipeline写入 cache:shop: 逻辑过期数据 和 shop:geo:{typeId}
+ * 4.每批之间休眠，休眠时间不少于本批查询数据库的耗时，保证预热占用数据库的时间不超过一半
+ * 5.进度可通过 progress() 查询
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmer {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.warm-up.shop.on-startup:false}")
+    private boolean onStartup;
+
+    @Value("${hmdp.warm-up.shop.batch-size:500}")
+    private int batchSize;
+
+    @Value("${hmdp.warm-up.shop.pause-millis:50}")
+    private long pauseMillis;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Progress progress = new Progress();
+
+    private final ExecutorService warmUpExecutor = Executors.newSingleThreadExecutor();
+
+    @Data
+    public static class Progress {
+        private volatile boolean running;
+        private volatile int total;
+        private volatile int loaded;
+        private volatile long lastId;
+        private volatile long startTime;
+        private volatile long endTime;
+        private volatile String error;
+    }
+
+    @PostConstruct
+    void init() {
+        if (onStartup) {
+            start();
+        }
+    }
+
+    @PreDestroy
+    void destroy() {
+        warmUpExecutor.shutdownNow();
+    }
+
+    /**
+     * 异步开始预热
+     * @return false 已有预热在执行
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Progress p = new Progress();
+        p.setRunning(true);
+        p.setStartTime(System.currentTimeMillis());
+        progress = p;
+        warmUpExecutor.execute(() -> {
+            try {
+                warmUp(p);
+            } catch (Exception e) {
+                p.setError(e.getMessage());
+                log.error("商铺缓存预热失败，已预热：{}，lastId：{}", p.getLoaded(), p.getLastId(), e);
+            } finally {
+                p.setEndTime(System.currentTimeMillis());
+                p.setRunning(false);
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public Progress progress() {
+        return progress;
+    }
+
+    private void warmUp(Progress p) throws InterruptedException {
+        p.setTotal(shopService.count());
+        log.info("开始预热商铺缓存，商铺数：{}", p.getTotal());
+        long lastId = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            //1.按id游标分页 where id > ? order by id limit ?
+            long begin = System.currentTimeMillis();
+            List<Shop> shops = shopService.query()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize)
+                    .list();
+            long queryMillis = System.currentTimeMillis() - begin;
+            if (shops.isEmpty()) {
+                break;
+            }
+
+            //2.pipeline写入缓存和GEO
+            writeBatch(shops);
+
+            lastId = shops.get(shops.size() - 1).getId();
+            p.setLoaded(p.getLoaded() + shops.size());
+            p.setLastId(lastId);
+            log.debug("商铺缓存预热进度：{}/{}，lastId：{}", p.getLoaded(), p.getTotal(), lastId);
+            if (shops.size() < batchSize) {
+                break;
+            }
+
+            //3.限速，避免影响正常的数据库查询
+            Thread.sleep(Math.max(pauseMillis, queryMillis));
+        }
+        log.info("商铺缓存预热完成，已预热：{}，耗时：{}ms", p.getLoaded(), System.currentTimeMillis() - p.getStartTime());
+    }
+
+    private void writeBatch(List<Shop> shops) {
+        Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        // 与查询时重建的逻辑过期时长一致
+        cacheClient.setBatchWithLogicExpire(values, CACHE_SHOP_TTL, TimeUnit.SECONDS);
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                    continue;
+                }
+                // GEOADD shop:geo:{typeId} 经度 纬度 id
+                conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
+            }
+            return null;
+        });
+    }
+}
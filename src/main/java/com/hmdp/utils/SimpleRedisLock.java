@@ -1,17 +1,24 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.DataType;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.data.redis.core.script.RedisScript;
-import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.utils.RedisConstants.LOCK_UNLOCK_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOCK_WATCHDOG_TTL;
+
 /**
  * SimpleRedisLock  redis实现分布式锁的简单实现
  *
@@ -23,11 +30,17 @@ import java.util.concurrent.TimeUnit;
  *  x 2.1 如果不做释放锁前的判断是不是当前线程的锁（业务阻塞锁超时释放，锁与线程不一致） 导致线程安全问题
  *  x 2.2 如果做了释放锁前的标志判断，可能会出现JVM垃圾回收机制造成阻塞（GC阻塞锁超时释放，锁与线程不一致），
  *  √ 2.3 使用redis的对lua脚本执行的原子性， 将判断 和 释放锁都写入脚本中
+ * 3.可重入：锁使用hash结构，field为线程标识，value为重入次数，获取时+1，释放时-1，为0时才删除
+ * 4.等待锁：被其他线程持有时不轮询，通过 RedisLockNotifier 等待释放通知，最多等到锁过期再重试
+ * 5.看门狗：leaseTime为-1时锁的TTL为 LOCK_WATCHDOG_TTL，每隔1/3续期一次，直到完全释放
+ *   持有锁的节点宕机后不再续期，锁最多 LOCK_WATCHDOG_TTL 后自动释放
+ * 6.兼容旧版本：滚动发布期间旧节点仍用 set nx 写string类型的锁，脚本先判断类型，
+ *   string类型的锁视为被其他线程持有，不会因为WRONGTYPE报错
  *
  * @author ZhengKai
  * @date 2023/4/9
  */
-
+@Slf4j
 public class SimpleRedisLock implements ILock{
 
     public static final String lock_prefix = "lock:";
@@ -35,46 +48,163 @@ public class SimpleRedisLock implements ILock{
     public static final String id_prefix = UUID.randomUUID().toString(true) + "-";
     private StringRedisTemplate stringRedisTemplate;
     private String name;
+    private RedisLockNotifier notifier;
     //定义lua脚本
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
     //使用静态代码块实现 lua脚本的初始化 这样就只需要加载一次 不用重复加载
     static{
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("reentrant_lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
         UNLOCK_SCRIPT = new DefaultRedisScript<>();
         // ClassPathResource() resource目录下的文件
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("reentrant_unlock.lua"));
         UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
     }
 
-
+    //看门狗：锁key + 线程标识 -> 续期任务，同一线程重入只有一个任务
+    private static final Map<String, ScheduledFuture<?>> WATCHDOGS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService WATCHDOG_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("lock-watchdog-", true));
 
     public SimpleRedisLock(StringRedisTemplate stringRedisTemplate, String name) {
+        this(stringRedisTemplate, name, null);
+    }
+
+    /**
+     * @param notifier 锁释放通知，为null时等待锁的线程每100ms重试一次
+     */
+    public SimpleRedisLock(StringRedisTemplate stringRedisTemplate, String name, RedisLockNotifier notifier) {
         this.stringRedisTemplate = stringRedisTemplate;
         this.name = name;
+        this.notifier = notifier;
     }
 
     @Override
     public boolean tryLock(long timeoutSec) {
 //        获取当前线程id 直接获取的线程id与JVM有关 分布系统中会出现 重复key问题
+        return acquire(TimeUnit.SECONDS.toMillis(timeoutSec)) < 0;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long leaseMillis = leaseTime > 0 ? unit.toMillis(leaseTime) : LOCK_WATCHDOG_TTL;
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        //1.获取锁，成功返回-1，失败返回锁的剩余时间
+        long ttl = acquire(leaseMillis);
+        if (ttl < 0) {
+            return acquired(leaseTime);
+        }
+        if (waitTime <= 0) {
+            return false;
+        }
+        //2.订阅释放通知后再重试，避免错过重试和等待之间的释放
+        RedisLockNotifier.Subscription subscription = notifier == null ? null : notifier.subscribe(lock_prefix + name);
+        try {
+            while (true) {
+                ttl = acquire(leaseMillis);
+                if (ttl < 0) {
+                    return acquired(leaseTime);
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                if (ttl == 0) {
+                    //锁刚好过期，立即重试
+                    continue;
+                }
+                //3.等待释放通知，最多等到锁过期
+                long waitNanos = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(ttl));
+                if (subscription != null) {
+                    subscription.await(waitNanos, TimeUnit.NANOSECONDS);
+                } else {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(waitNanos, TimeUnit.MILLISECONDS.toNanos(100)));
+                }
+            }
+        } finally {
+            if (subscription != null) {
+                notifier.unsubscribe(subscription);
+            }
+        }
+    }
 
-        String threadId = id_prefix + Thread.currentThread().getId();
-        Boolean success = stringRedisTemplate.opsForValue()
-                .setIfAbsent(lock_prefix + name, threadId, timeoutSec, TimeUnit.SECONDS);
-//        此处会发生自动拆箱 如果封装类的值为null 拆箱就会空指针
-        return BooleanUtil.isTrue(success);
+    private boolean acquired(long leaseTime) {
+        if (leaseTime <= 0) {
+            startWatchdog();
+        }
+        return true;
     }
 
+    @Override
+    public boolean isHeldByCurrentThread() {
+        //旧版本节点的string类型锁直接hexists会报WRONGTYPE
+        String key = lock_prefix + name;
+        return DataType.HASH == stringRedisTemplate.type(key)
+                && stringRedisTemplate.opsForHash().hasKey(key, owner());
+    }
 
     /**
      * 判断锁标识的时候可能会出现阻塞 , 锁没正常释放， 再执行其他线程是才释放
      * 会出现线程安全问题
      * 是因为判断和删除 两个操作不是一个原子性操作
      * 此处借助Lua脚本 将两个操作执行 借助lua脚本的特性实现原子性操作
+     * 重入次数减为0时才删除，并通知等待的线程
      */
     @Override
     public void unlock() {
-        stringRedisTemplate.execute(UNLOCK_SCRIPT,
+        Long result = stringRedisTemplate.execute(UNLOCK_SCRIPT,
+                Collections.singletonList(lock_prefix + name),
+                owner(), LOCK_UNLOCK_CHANNEL);
+        //完全释放或者锁已经不是自己的，停止续期
+        if (result == null || result != 0) {
+            stopWatchdog();
+        }
+    }
+
+    //-1 获取成功，否则为锁的剩余时间(毫秒)
+    private long acquire(long leaseMillis) {
+        Long ttl = stringRedisTemplate.execute(LOCK_SCRIPT,
                 Collections.singletonList(lock_prefix + name),
-                id_prefix + Thread.currentThread().getId());
+                owner(), String.valueOf(leaseMillis));
+        return ttl == null ? 0 : ttl;
+    }
+
+    private String owner() {
+        return id_prefix + Thread.currentThread().getId();
+    }
+
+    private void startWatchdog() {
+        String key = lock_prefix + name;
+        String owner = owner();
+        long period = LOCK_WATCHDOG_TTL / 3;
+        WATCHDOGS.computeIfAbsent(key + "|" + owner, k -> WATCHDOG_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key),
+                        owner, String.valueOf(LOCK_WATCHDOG_TTL));
+                if (renewed == null || renewed == 0) {
+                    //锁已经不存在或者不是自己的
+                    ScheduledFuture<?> future = WATCHDOGS.remove(k);
+                    if (future != null) {
+                        future.cancel(false);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("锁续期失败：{}", key, e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS));
+    }
+
+    private void stopWatchdog() {
+        ScheduledFuture<?> future = WATCHDOGS.remove(lock_prefix + name + "|" + owner());
+        if (future != null) {
+            future.cancel(false);
+        }
     }
 
 
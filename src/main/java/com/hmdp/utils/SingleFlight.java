@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * SingleFlight  同一节点内合并相同key的并发加载
+ *
+ * 热点key失效时，同一节点的大量请求同时未命中
+ * 第一个请求执行加载，其余请求等待同一个CompletableFuture的结果，不再各自sleep重试、重复查询redis
+ * 加载结束后移除，下一次未命中会重新加载
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+        if (existing != null) {
+            // 已有线程在加载，等待其结果
+            try {
+                return (R) existing.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw e;
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    // 正在加载的key数量
+    public int inFlight() {
+        return calls.size();
+    }
+}
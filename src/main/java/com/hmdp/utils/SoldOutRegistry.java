@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.NumberUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_REPLENISH_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_TTL;
+
+/**
+ * SoldOutRegistry  本节点的秒杀券售罄标记
+ *
+ * 售罄之后的请求仍然要生成订单id、执行一次lua脚本，秒杀尾声大量请求都是注定失败的
+ * 1.lua脚本返回库存不足时标记售罄，之后本节点直接拒绝，不再访问redis
+ * 2.库存还回（分段库存回滚、对账修复补回库存）时通过redis发布订阅通知所有节点清除标记；
+ *   新增的优惠券不会被标记过售罄，无需通知
+ * 3.标记有过期时间，通知丢失时最多 SECKILL_SOLD_OUT_TTL 后重新以redis为准
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    // 优惠券id -> 标记的过期时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    public SoldOutRegistry(StringRedisTemplate stringRedisTemplate,
+                           RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_REPLENISH_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt > System.currentTimeMillis()) {
+            return true;
+        }
+        soldOut.remove(voucherId, expireAt);
+        return false;
+    }
+
+    public void markSoldOut(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + SECKILL_SOLD_OUT_TTL);
+    }
+
+    /**
+     * 库存已补充，通知所有节点（包括自己）清除售罄标记
+     */
+    public void replenish(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_REPLENISH_CHANNEL, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (NumberUtil.isLong(body)) {
+            soldOut.remove(Long.parseLong(body));
+        }
+    }
+}
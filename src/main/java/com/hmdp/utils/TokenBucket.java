@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TokenBucket  本地令牌桶
+ *
+ * 不保存令牌数，只保存"理论到达时间"：每取一个令牌向后推 1/速率，
+ * 推到超过当前时间 容量/速率 时说明令牌已取完（与令牌桶等价），一次CAS完成，不加锁
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+public class TokenBucket {
+
+    // 产生一个令牌的时间(纳秒)
+    private final long interval;
+
+    // 最多可以提前取的时间(纳秒)，即桶的容量
+    private final long tolerance;
+
+    private final AtomicLong theoreticalTime = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param permitsPerSecond 每秒产生的令牌数
+     * @param capacity 桶的容量(允许的突发请求数)
+     */
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.tolerance = interval * Math.max(capacity, 1);
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long tat = theoreticalTime.get();
+            long next = Math.max(tat, now) + interval;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (theoreticalTime.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.dto.SeckillOrderStatus;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_ORDER_NAME;
+import static com.hmdp.utils.RedisConstants.LOCK_ORDER_WAIT;
+import static com.hmdp.utils.RedisConstants.SECKILL_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STATUS_TTL;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_BLOCK;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_GROUP;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_KEY;
+
+/**
+ * VoucherOrderConsumer  秒杀订单消息队列(stream.orders)的消费者
+ *
+ * 原来只有一个线程、一个消费者c1，每次读一条消息，每条消息一个事务一次XACK，高峰时订单入库远跟不上lua脚本的下单速度
+ * 1.消费者线程数可配置，消费者名称为 主机名:端口-序号，每个节点每个线程唯一，重启后名称不变
+ * 2.每次XREADGROUP读取一批消息，一个事务内多行插入订单，每个优惠券只扣减一次库存
+ * 3.整批成功后一次XACK所有消息；整批失败时逐条处理，只应答成功的消息，失败的留在pending-list
+ *   逐条处理时通过 LockFacade 获取 lock:order:{userId}，同一用户的订单同一时间只有一个线程在创建
+ * 4.处理完成后把订单状态 PERSISTED / FAILED 写入 seckill:status:{voucherId}:{userId}，客户端轮询该key
+ * 5.启动时和出现异常后先处理本消费者pending-list中的消息，长时间未应答的消息由 VoucherOrderRecovery 认领
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class VoucherOrderConsumer {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private LockFacade lockFacade;
+
+    @Value("${hmdp.seckill.order.consumers:4}")
+    private int consumers;
+
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    @Value("${server.port:8080}")
+    private int port;
+
+    private volatile boolean running = true;
+
+    private ExecutorService consumerExecutor;
+
+    private String node;
+
+    @PostConstruct
+    void init() {
+        createGroup();
+        consumerExecutor = Executors.newFixedThreadPool(consumers, new NamedThreadFactory("order-consumer-", false));
+        node = NetUtil.getLocalHostName() + ":" + port;
+        for (int i = 0; i < consumers; i++) {
+            String name = node + "-" + i;
+            consumerExecutor.execute(() -> consume(Consumer.from(STREAM_ORDERS_GROUP, name)));
+        }
+    }
+
+    @PreDestroy
+    void destroy() {
+        running = false;
+        consumerExecutor.shutdownNow();
+    }
+
+    /**
+     * 本节点的名称 主机名:端口
+     */
+    public String node() {
+        return node;
+    }
+
+    // XGROUP CREATE stream.orders g1 0 MKSTREAM，已存在时忽略
+    private void createGroup() {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(STREAM_ORDERS_KEY, ReadOffset.from("0"), STREAM_ORDERS_GROUP);
+        } catch (Exception e) {
+            log.debug("消费者组已存在：{}", STREAM_ORDERS_GROUP);
+        }
+    }
+
+    // StreamOperations.read 的 StreamOffset 可变参数是泛型数组，没有标注 @SafeVarargs
+    @SuppressWarnings("unchecked")
+    private void consume(Consumer consumer) {
+        handlePendingList(consumer);
+        while (running) {
+            try {
+                //1.获取消息队列中的订单信息 xreadgroup group g1 name count N block 2000 streams stream.orders >
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(STREAM_ORDERS_BLOCK)),
+                        StreamOffset.create(STREAM_ORDERS_KEY, ReadOffset.lastConsumed()));
+                //2.没有消息，继续下一次循环
+                if (list == null || list.isEmpty()) {
+                    continue;
+                }
+                //3.批量创建订单并应答
+                handle(list);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("订单处理异常，consumer：{}", consumer.getName(), e);
+                handlePendingList(consumer);
+            }
+        }
+    }
+
+    // 处理本消费者已读取但未应答的消息，有处理失败的消息时停止，避免一直重试
+    @SuppressWarnings("unchecked")
+    private void handlePendingList(Consumer consumer) {
+        while (running) {
+            try {
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize),
+                        StreamOffset.create(STREAM_ORDERS_KEY, ReadOffset.from("0")));
+                if (list == null || list.isEmpty() || !handle(list)) {
+                    return;
+                }
+            } catch (Exception e) {
+                log.error("处理pending订单异常，consumer：{}", consumer.getName(), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 创建一批订单并应答
+     * @return 是否全部处理成功
+     */
+    public boolean handle(List<? extends MapRecord<String, ?, ?>> list) {
+        List<VoucherOrder> orders = new ArrayList<>(list.size());
+        RecordId[] ids = new RecordId[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            MapRecord<String, ?, ?> record = list.get(i);
+            orders.add(toVoucherOrder(record.getValue()));
+            ids[i] = record.getId();
+        }
+        try {
+            //1.整批在一个事务中创建
+            voucherOrderService.createVoucherOrders(orders);
+            //2.一次应答整批消息
+            stringRedisTemplate.opsForStream().acknowledge(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP, ids);
+            markStatus(orders, SeckillOrderStatus.PERSISTED);
+            return true;
+        } catch (Exception e) {
+            log.warn("批量创建订单失败，逐条处理，数量：{}", orders.size(), e);
+        }
+        //3.逐条处理，只应答成功的
+        List<RecordId> acked = new ArrayList<>(list.size());
+        List<VoucherOrder> persisted = new ArrayList<>(list.size());
+        List<VoucherOrder> failed = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            VoucherOrder order = orders.get(i);
+            ILock lock = lockFacade.getLock(LOCK_ORDER_NAME + order.getUserId());
+            try {
+                //3.1.同一用户的订单正在被其他线程创建，留在pending-list稍后重试
+                if (!lock.tryLock(LOCK_ORDER_WAIT, -1, TimeUnit.MILLISECONDS)) {
+                    log.warn("获取订单锁超时，id：{}", ids[i]);
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try {
+                if (voucherOrderService.createVoucherOrder(order)) {
+                    persisted.add(order);
+                } else {
+                    failed.add(order);
+                }
+                acked.add(ids[i]);
+            } catch (Exception e) {
+                log.error("创建订单失败，id：{}", ids[i], e);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (!acked.isEmpty()) {
+            stringRedisTemplate.opsForStream().acknowledge(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP, acked.toArray(new RecordId[0]));
+        }
+        markStatus(persisted, SeckillOrderStatus.PERSISTED);
+        markStatus(failed, SeckillOrderStatus.FAILED);
+        return acked.size() == orders.size();
+    }
+
+    /**
+     * pipeline写入订单状态
+     */
+    public void markStatus(List<VoucherOrder> orders, SeckillOrderStatus status) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (VoucherOrder order : orders) {
+                    conn.setEx(SECKILL_STATUS_KEY + order.getVoucherId() + ":" + order.getUserId(),
+                            TimeUnit.MINUTES.toSeconds(SECKILL_STATUS_TTL), status.name());
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 订单已经处理完成，状态写入失败不影响订单
+            log.error("写入订单状态失败，status：{}", status, e);
+        }
+    }
+
+    // 解析订单信息，订单id由lua脚本中的 时间戳 + 序列号 组合而成
+    public VoucherOrder toVoucherOrder(Map<?, ?> value) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        if (voucherOrder.getId() == null && value.get("timestamp") != null) {
+            voucherOrder.setId(redisIdWorker.compose(
+                    Long.parseLong(value.get("timestamp").toString()), Long.parseLong(value.get("count").toString())));
+        }
+        return voucherOrder;
+    }
+}
@@ -0,0 +1,222 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.SeckillOrderStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_GROUP;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_KEY;
+
+/**
+ * VoucherOrderRecovery  订单消息的故障恢复
+ *
+ * 原来的pending-list处理从0开始死循环重试，一条处理不了的消息会一直重试，宕机节点的消费者未应答的消息也没人处理
+ * 1.定时XPENDING按id游标分页查询g1中所有消费者超过 min-idle 未应答的消息，XCLAIM认领到本节点的恢复消费者
+ *   XCLAIM带min-idle，多个节点同时认领时只有一个能成功
+ * 2.投递次数(redis记录，每次认领加1)超过 max-deliveries 的消息写入 stream.orders.dlq 后应答，不再重试，订单状态为FAILED
+ * 3.其余消息交给 VoucherOrderConsumer 处理，失败的下次再认领
+ * 4.应答后裁剪stream：最早未应答的消息之前的都已处理完，XTRIM MINID 删除；
+ *   redis 6.2以下不支持MINID，用 XRANGE + XDEL 删除
+ *   读取未应答/最后投递的id和删除在同一个lua脚本中执行，分开执行时两次读取之间可能有新的投递，
+ *   最后投递的id越过刚投递、还未应答的消息，这些消息会被删除
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class VoucherOrderRecovery {
+
+    @Resource
+    private VoucherOrderConsumer voucherOrderConsumer;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.order.recovery-interval-millis:5000}")
+    private long intervalMillis;
+
+    @Value("${hmdp.seckill.order.min-idle-millis:30000}")
+    private long minIdleMillis;
+
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private long maxDeliveries;
+
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT;
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource("stream_trim.lua"));
+        TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    // 是否支持XTRIM MINID，null表示还未检测
+    private volatile Boolean minIdSupported;
+
+    private final ScheduledExecutorService recoveryExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    void init() {
+        recoveryExecutor.scheduleWithFixedDelay(this::recover, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void destroy() {
+        recoveryExecutor.shutdownNow();
+    }
+
+    private void recover() {
+        try {
+            claimIdle();
+        } catch (Exception e) {
+            log.error("认领超时订单消息异常", e);
+        }
+        try {
+            trim();
+        } catch (Exception e) {
+            log.error("裁剪订单消息队列异常", e);
+        }
+    }
+
+    // 认领超时未应答的消息
+    private void claimIdle() {
+        Duration minIdle = Duration.ofMillis(minIdleMillis);
+        //1.XPENDING stream.orders g1 cursor + count 按id游标分页，刚被认领的消息排在前面时也能找到后面超时的消息
+        Map<String, Long> deliveries = new HashMap<>();
+        List<RecordId> idle = new ArrayList<>();
+        String cursor = "-";
+        while (idle.size() < batchSize) {
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP,
+                    Range.rightUnbounded(Range.Bound.inclusive(cursor)), batchSize);
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0 && idle.size() < batchSize) {
+                    idle.add(message.getId());
+                    deliveries.put(message.getIdAsString(), message.getTotalDeliveryCount());
+                }
+            }
+            if (pending.size() < batchSize) {
+                break;
+            }
+            // 下一页从最后一条的下一个id开始(redis 6.2以下不支持排他区间)
+            RecordId last = pending.get(pending.size() - 1).getId();
+            cursor = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        }
+        if (idle.isEmpty()) {
+            return;
+        }
+
+        //2.XCLAIM stream.orders g1 recovery min-idle ids...
+        String owner = voucherOrderConsumer.node() + "-recovery";
+        List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                ((StringRedisConnection) connection).xClaim(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP, owner,
+                        RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(idle)));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+
+        //3.超过投递次数的移入死信队列，其余重新处理
+        List<StringRecord> retry = new ArrayList<>(claimed.size());
+        for (StringRecord record : claimed) {
+            if (record.getValue() == null) {
+                continue;
+            }
+            long count = deliveries.getOrDefault(record.getId().getValue(), 0L);
+            if (count >= maxDeliveries) {
+                deadLetter(record, count);
+            } else {
+                retry.add(record);
+            }
+        }
+        if (!retry.isEmpty()) {
+            log.info("重新处理超时未应答的订单消息，数量：{}", retry.size());
+            voucherOrderConsumer.handle(retry);
+        }
+    }
+
+    // 写入死信队列并应答
+    private void deadLetter(StringRecord record, long deliveries) {
+        Map<String, String> value = new HashMap<>(record.getValue());
+        value.put("originId", record.getId().getValue());
+        value.put("deliveries", String.valueOf(deliveries));
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(STREAM_ORDERS_DLQ_KEY).ofMap(value));
+        stringRedisTemplate.opsForStream().acknowledge(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP, record.getId());
+        voucherOrderConsumer.markStatus(
+                Collections.singletonList(voucherOrderConsumer.toVoucherOrder(record.getValue())), SeckillOrderStatus.FAILED);
+        log.error("订单消息投递{}次仍处理失败，移入死信队列：{}", deliveries, value);
+    }
+
+    // 删除已应答的消息：最早未应答的消息之前的，没有未应答的消息时为最后投递的消息之前的
+    private void trim() {
+        String minIdSupported = supportsMinId() ? "1" : "0";
+        while (true) {
+            Long deleted = stringRedisTemplate.execute(TRIM_SCRIPT, Collections.singletonList(STREAM_ORDERS_KEY),
+                    STREAM_ORDERS_GROUP, String.valueOf(batchSize), minIdSupported);
+            // XTRIM一次完成；XDEL每次最多删除batchSize条，删满时继续
+            if ("1".equals(minIdSupported) || deleted == null || deleted < batchSize) {
+                return;
+            }
+        }
+    }
+
+    // redis 6.2 开始支持 XTRIM MINID，只检测一次
+    private boolean supportsMinId() {
+        Boolean supported = minIdSupported;
+        if (supported == null) {
+            Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection ->
+                    connection.serverCommands().info("server"));
+            String version = info == null ? null : info.getProperty("redis_version");
+            supported = version != null && compareVersion(version, "6.2") >= 0;
+            minIdSupported = supported;
+            log.info("redis版本：{}，{}XTRIM MINID裁剪订单消息队列", version, supported ? "使用" : "不支持，使用XDEL代替");
+        }
+        return supported;
+    }
+
+    private static int compareVersion(String version, String other) {
+        String[] a = version.split("\\.");
+        String[] b = other.split("\\.");
+        for (int i = 0; i < Math.max(a.length, b.length); i++) {
+            int x = i < a.length ? versionPart(a[i]) : 0;
+            int y = i < b.length ? versionPart(b[i]) : 0;
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+        }
+        return 0;
+    }
+
+    private static int versionPart(String part) {
+        String digits = part.replaceAll("\\D.*", "");
+        return digits.isEmpty() ? 0 : Integer.parseInt(digits);
+    }
+}
@@ -0,0 +1,26 @@
+package com.hmdp.utils.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * CacheCodec  缓存对象的二进制编解码器
+ *
+ * 实现类注册为spring的bean后，CacheSerializer会对该类型使用二进制格式，其他类型仍使用json
+ * 字段的写入和读取顺序必须一致，新增字段只能追加在末尾
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+public interface CacheCodec<T> {
+
+    /**
+     * @return 支持的类型
+     */
+    Class<T> type();
+
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+}
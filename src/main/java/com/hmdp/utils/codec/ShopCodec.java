@@ -0,0 +1,64 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Shop;
+import org.springframework.stereotype.Component;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static com.hmdp.utils.codec.CodecUtils.*;
+
+/**
+ * ShopCodec
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class ShopCodec implements CacheCodec<Shop> {
+
+    @Override
+    public Class<Shop> type() {
+        return Shop.class;
+    }
+
+    @Override
+    public void write(Shop shop, DataOutput out) throws IOException {
+        writeLong(out, shop.getId());
+        writeString(out, shop.getName());
+        writeLong(out, shop.getTypeId());
+        writeString(out, shop.getImages());
+        writeString(out, shop.getArea());
+        writeString(out, shop.getAddress());
+        writeDouble(out, shop.getX());
+        writeDouble(out, shop.getY());
+        writeLong(out, shop.getAvgPrice());
+        writeInt(out, shop.getSold());
+        writeInt(out, shop.getComments());
+        writeInt(out, shop.getScore());
+        writeString(out, shop.getOpenHours());
+        writeDateTime(out, shop.getCreateTime());
+        writeDateTime(out, shop.getUpdateTime());
+    }
+
+    @Override
+    public Shop read(DataInput in) throws IOException {
+        return new Shop()
+                .setId(readLong(in))
+                .setName(readString(in))
+                .setTypeId(readLong(in))
+                .setImages(readString(in))
+                .setArea(readString(in))
+                .setAddress(readString(in))
+                .setX(readDouble(in))
+                .setY(readDouble(in))
+                .setAvgPrice(readLong(in))
+                .setSold(readInt(in))
+                .setComments(readInt(in))
+                .setScore(readInt(in))
+                .setOpenHours(readString(in))
+                .setCreateTime(readDateTime(in))
+                .setUpdateTime(readDateTime(in));
+    }
+}
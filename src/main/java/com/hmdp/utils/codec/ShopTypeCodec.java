@@ -0,0 +1,46 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.ShopType;
+import org.springframework.stereotype.Component;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static com.hmdp.utils.codec.CodecUtils.*;
+
+/**
+ * ShopTypeCodec
+ *
+ * @author ZhengKai
+ * @date 2026/10/18
+ */
+@Component
+public class ShopTypeCodec implements CacheCodec<ShopType> {
+
+    @Override
+    public Class<ShopType> type() {
+        return ShopType.class;
+    }
+
+    @Override
+    public void write(ShopType shopType, DataOutput out) throws IOException {
+        writeLong(out, shopType.getId());
+        writeString(out, shopType.getName());
+        writeString(out, shopType.getIcon());
+        writeInt(out, shopType.getSort());
+        writeDateTime(out, shopType.getCreateTime());
+        writeDateTime(out, shopType.getUpdateTime());
+    }
+
+    @Override
+    public ShopType read(DataInput in) throws IOException {
+        return new ShopType()
+                .setId(readLong(in))
+                .setName(readString(in))
+                .setIcon(readString(in))
+                .setSort(readInt(in))
+                .setCreateTime(readDateTime(in))
+                .setUpdateTime(readDateTime(in));
+    }
+}
@@ -0,0 +1,13 @@
+-- ----------------------------
+-- 已有数据库升级：tb_voucher_order 增加 (user_id, voucher_id) 唯一索引
+-- 订单改为 INSERT IGNORE 批量插入，一人一单只由该索引保证，未升级的数据库启动时会失败
+-- ----------------------------
+
+-- 1.检查已有的重复订单，有结果时先人工处理（保留有效订单、退款或删除其余订单），否则第2步会失败
+SELECT `user_id`, `voucher_id`, COUNT(*) AS `orders`, GROUP_CONCAT(`id` ORDER BY `id`) AS `ids`
+FROM `tb_voucher_order`
+GROUP BY `user_id`, `voucher_id`
+HAVING COUNT(*) > 1;
+
+-- 2.增加唯一索引
+ALTER TABLE `tb_voucher_order` ADD UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE;
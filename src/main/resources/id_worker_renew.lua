@@ -0,0 +1,5 @@
+-- workerId租约续期：key中仍是本节点的标识才续期
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,5 @@
+-- 看门狗续期：仍是自己的锁才续期
+if (redis.call('type', KEYS[1])['ok'] == 'hash' and redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,19 @@
+-- 滑动窗口限流（用当前窗口和上一个窗口的计数按时间加权估算）
+-- KEYS[1] 当前窗口的计数key
+-- KEYS[2] 上一个窗口的计数key
+-- ARGV[1] 窗口内允许的请求数
+-- ARGV[2] 当前时间在窗口中的比例(0~1)
+-- ARGV[3] 窗口时长(毫秒)
+local limit = tonumber(ARGV[1])
+local current = tonumber(redis.call('get', KEYS[1]) or '0')
+local previous = tonumber(redis.call('get', KEYS[2]) or '0')
+
+-- 上一个窗口中仍在滑动窗口内的部分 + 当前窗口
+if (previous * (1 - tonumber(ARGV[2])) + current >= limit) then
+    return 0
+end
+
+redis.call('incr', KEYS[1])
+-- 下一个窗口还要用到当前窗口的计数
+redis.call('pexpire', KEYS[1], tonumber(ARGV[3]) * 2)
+return 1
@@ -0,0 +1,21 @@
+-- 锁key
+local key = KEYS[1]
+-- 线程标识
+local owner = ARGV[1]
+-- 锁的TTL(毫秒)
+local leaseTime = ARGV[2]
+
+-- 锁的类型：none 不存在，hash 可重入锁，string 旧版本节点 set nx 加的锁
+local keyType = redis.call('type', key)['ok']
+-- 锁不存在或者是自己的锁，重入次数+1并重置TTL
+if (keyType == 'none' or (keyType == 'hash' and redis.call('hexists', key, owner) == 1)) then
+    redis.call('hincrby', key, owner, 1)
+    redis.call('pexpire', key, leaseTime)
+    return -1
+end
+-- 被别人持有（包括旧版本节点的锁），返回锁的剩余时间(毫秒)
+local ttl = redis.call('pttl', key)
+if (ttl < 0) then
+    return 0
+end
+return ttl
@@ -0,0 +1,20 @@
+-- 锁key
+local key = KEYS[1]
+-- 线程标识
+local owner = ARGV[1]
+-- 释放锁的通知频道
+local channel = ARGV[2]
+
+-- 不是自己的锁（旧版本节点的string锁也不是）
+if (redis.call('type', key)['ok'] ~= 'hash' or redis.call('hexists', key, owner) == 0) then
+    return -1
+end
+-- 重入次数-1，还有重入时不释放
+local count = redis.call('hincrby', key, owner, -1)
+if (count > 0) then
+    return 0
+end
+-- 完全释放，通知等待的线程
+redis.call('del', key)
+redis.call('publish', channel, key)
+return 1
@@ -2,24 +2,47 @@
 local voucherId = ARGV[1]
 -- 用户id
 local userId = ARGV[2]
--- 订单id
-local orderId = ARGV[3]
+-- 订单id序列号key
+local idKey = ARGV[3]
+-- 订单id时间戳部分
+local timestamp = ARGV[4]
+-- 当前时间(毫秒)
+local now = tonumber(ARGV[5])
+-- 订单状态过期时间(秒)
+local statusTtl = ARGV[6]
+-- 本地id模式下调用方生成的订单id，可选
+local orderId = ARGV[7]
 
 -- 库存key
 local stockKey = 'seckill:stock:' .. voucherId
 -- 订单key
 local orderKey = 'seckill:order:' .. voucherId
+-- 秒杀时间key
+local windowKey = 'seckill:window:' .. voucherId
+-- 订单状态key
+local statusKey = 'seckill:status:' .. voucherId .. ':' .. userId
+
+-- 判断秒杀是否开始、结束
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+if (window[1] and now < tonumber(window[1])) then
+    -- 未开始
+    return {4}
+end
+if (window[2] and now > tonumber(window[2])) then
+    -- 已结束
+    return {5}
+end
 
 -- 判断库存是否充足
 if (tonumber(redis.call('get', stockKey)) <= 0) then
     -- 库存不足
-    return 1
+    return {1}
 end
 
 -- 判断是否重复抢购
 if (redis.call('sismember', orderKey, userId) == 1) then
     -- 重复抢购
-    return 2
+    return {2}
 end
 
 --扣除库存
@@ -27,7 +50,18 @@ redis.call('incrby', stockKey, -1)
 --下单 保存用户
 redis.call('sadd', orderKey, userId)
 
+--订单状态：等待写入数据库
+redis.call('set', statusKey, 'QUEUED', 'EX', statusTtl)
+
+if (orderId) then
+    redis.call('xadd', 'stream.orders', '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId)
+    return {0, 0}
+end
+
+--校验通过后才生成订单id的序列号，订单id = 时间戳 << 32 | 序列号
+local count = redis.call('incr', idKey)
+
 --将订单放入消息队列中 xadd stream.orders * k1 v1 k2 v2 ....
-redis.call('xadd', 'stream.orders', '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId)
+redis.call('xadd', 'stream.orders', '*', 'voucherId', voucherId, 'userId', userId, 'timestamp', timestamp, 'count', count)
 
-return 0
\ No newline at end of file
+return {0, count}
@@ -0,0 +1,35 @@
+-- 分段库存：在用户所属的分段中抢购
+-- KEYS[1] 分段库存key seckill:stock:{voucherId:i}
+-- KEYS[2] 分段订单key seckill:order:{voucherId:i}
+-- KEYS[3] 分段秒杀时间key seckill:window:{voucherId:i}
+-- ARGV[1] 用户id
+-- ARGV[2] 当前时间(毫秒)
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local userId = ARGV[1]
+local now = tonumber(ARGV[2])
+
+-- 判断秒杀是否开始、结束
+local window = redis.call('hmget', KEYS[3], 'begin', 'end')
+if (window[1] and now < tonumber(window[1])) then
+    return 4
+end
+if (window[2] and now > tonumber(window[2])) then
+    return 5
+end
+
+-- 判断是否重复抢购（用户只会记录在所属的分段中）
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+
+-- 分段库存不足，由调用方到其他分段扣减
+if ((tonumber(redis.call('get', stockKey)) or 0) <= 0) then
+    return 3
+end
+
+--扣除库存
+redis.call('incrby', stockKey, -1)
+--下单 保存用户
+redis.call('sadd', orderKey, userId)
+return 0
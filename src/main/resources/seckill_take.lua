@@ -0,0 +1,7 @@
+-- 分段库存：从其他分段扣减一个库存
+-- KEYS[1] 分段库存key seckill:stock:{voucherId:i}
+if ((tonumber(redis.call('get', KEYS[1])) or 0) <= 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], -1)
+return 1
@@ -0,0 +1,50 @@
+-- 裁剪已应答的订单消息，读取和删除在同一个脚本中执行，期间不会有新的投递
+-- KEYS[1] stream key
+local key = KEYS[1]
+-- 消费者组
+local group = ARGV[1]
+-- XDEL方式每次最多删除的消息数
+local count = tonumber(ARGV[2])
+-- 是否支持XTRIM MINID(redis 6.2+)
+local minIdSupported = ARGV[3] == '1'
+
+if (redis.call('exists', key) == 0) then
+    return 0
+end
+-- 1.消费者组最后投递的消息id
+local lastDelivered = nil
+for _, info in ipairs(redis.call('xinfo', 'groups', key)) do
+    local name, id
+    for i = 1, #info, 2 do
+        if (info[i] == 'name') then
+            name = info[i + 1]
+        elseif (info[i] == 'last-delivered-id') then
+            id = info[i + 1]
+        end
+    end
+    if (name == group) then
+        lastDelivered = id
+    end
+end
+if (lastDelivered == nil or lastDelivered == '0-0') then
+    return 0
+end
+-- 2.最早未应答的消息（未应答的消息都已投递，不会大于最后投递的id），没有时为最后投递的消息
+local minId = lastDelivered
+local pending = redis.call('xpending', key, group)
+if (pending[1] > 0) then
+    minId = pending[2]
+end
+-- 3.删除minId之前的消息
+if (minIdSupported) then
+    return redis.call('xtrim', key, 'MINID', '~', minId)
+end
+-- redis 6.2以下：XRANGE 取出minId之前的消息，XDEL 删除
+-- MAXLEN 只能按条数裁剪，积压较多时会删掉未应答的消息，这里不使用
+local deleted = 0
+for _, record in ipairs(redis.call('xrange', key, '-', minId, 'COUNT', count)) do
+    if (record[1] ~= minId) then
+        deleted = deleted + redis.call('xdel', key, record[1])
+    end
+end
+return deleted
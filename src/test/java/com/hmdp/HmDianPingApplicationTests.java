@@ -3,7 +3,11 @@ package com.hmdp;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisLockNotifier;
+import com.hmdp.utils.SimpleRedisLock;
 import org.junit.jupiter.api.Test;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
@@ -14,13 +18,18 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 
 @SpringBootTest
@@ -34,6 +43,12 @@ class HmDianPingApplicationTests {
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    RedissonClient redissonClient;
+
+    @Resource
+    RedisLockNotifier redisLockNotifier;
+
 
     ExecutorService es = Executors.newFixedThreadPool(500);
 
@@ -103,4 +118,81 @@ class HmDianPingApplicationTests {
         }
     }
 
+    /**
+     * 同一把锁的竞争：SimpleRedisLock 与 Redisson RLock 对比
+     * 50线程 每个线程加锁、释放100次，都使用看门狗模式
+     */
+    @Test
+    public void testLockContention() throws InterruptedException {
+        int threads = 50;
+        int times = 100;
+        AtomicInteger simpleAcquired = new AtomicInteger();
+        AtomicInteger simpleHolders = new AtomicInteger();
+        AtomicInteger simpleOverlaps = new AtomicInteger();
+        long simple = contend(threads, () -> {
+            SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "bench:simple", redisLockNotifier);
+            for (int i = 0; i < times; i++) {
+                if (lock.tryLock(60, -1, TimeUnit.SECONDS)) {
+                    simpleAcquired.incrementAndGet();
+                    if (simpleHolders.incrementAndGet() > 1) {
+                        simpleOverlaps.incrementAndGet();
+                    }
+                    simpleHolders.decrementAndGet();
+                    lock.unlock();
+                }
+            }
+            return null;
+        });
+        AtomicInteger redissonAcquired = new AtomicInteger();
+        long redisson = contend(threads, () -> {
+            RLock lock = redissonClient.getLock("lock:bench:redisson");
+            for (int i = 0; i < times; i++) {
+                if (lock.tryLock(60, -1, TimeUnit.SECONDS)) {
+                    redissonAcquired.incrementAndGet();
+                    lock.unlock();
+                }
+            }
+            return null;
+        });
+        System.out.println("SimpleRedisLock：获取" + simpleAcquired.get() + "次，用时" + simple + "ms");
+        System.out.println("Redisson RLock：获取" + redissonAcquired.get() + "次，用时" + redisson + "ms");
+        // 等待时间内每次都能获取到锁，且同一时刻只有一个线程持有
+        assertEquals(threads * times, simpleAcquired.get());
+        assertEquals(0, simpleOverlaps.get());
+        assertEquals(threads * times, redissonAcquired.get());
+    }
+
+    @Test
+    public void testLockWithLegacyStringKey() throws InterruptedException {
+        // 模拟旧版本节点 set nx 写入的string类型锁
+        stringRedisTemplate.opsForValue().set(SimpleRedisLock.lock_prefix + "bench:legacy", "old-node-1", 10, TimeUnit.SECONDS);
+        try {
+            SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "bench:legacy");
+            assertFalse(lock.tryLock(0, -1, TimeUnit.MILLISECONDS));
+            assertFalse(lock.isHeldByCurrentThread());
+            // 不是自己的锁，不删除
+            lock.unlock();
+            assertEquals("old-node-1", stringRedisTemplate.opsForValue().get(SimpleRedisLock.lock_prefix + "bench:legacy"));
+        } finally {
+            stringRedisTemplate.delete(SimpleRedisLock.lock_prefix + "bench:legacy");
+        }
+    }
+
+    private long contend(int threads, Callable<?> task) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(threads);
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < threads; i++) {
+            es.submit(() -> {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        return System.currentTimeMillis() - begin;
+    }
 }
@@ -0,0 +1,199 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀压测，需要redis和mysql，默认不执行：mvn test -Pload-test
+ *
+ * 1.通过 addSeckillVoucher 新建一张秒杀券，走真实的 seckill.lua、stream.orders、VoucherOrderConsumer 和 insertIgnoreBatch
+ * 2.每个用户请求两次，统计下单吞吐、接口耗时p50/p99、抢购结束到订单全部写入数据库的耗时
+ * 3.检查不超卖、不重复下单、redis和数据库的库存与订单一致；结果写入日志和 target/seckill-load-report.txt
+ *
+ * 规模可通过系统属性调整：-Dseckill.users=20000 -Dseckill.stock=5000 -Dseckill.threads=200
+ */
+@Slf4j
+@Tag("load")
+@SpringBootTest
+class SeckillLoadTest {
+
+    private static final Path REPORT = Paths.get("target", "seckill-load-report.txt");
+
+    private final int users = Integer.getInteger("seckill.users", 5000);
+    private final int stock = Integer.getInteger("seckill.stock", 1000);
+    private final int threads = Integer.getInteger("seckill.threads", 100);
+    private final long drainTimeoutMillis = Long.getLong("seckill.drain-timeout-millis", 60_000);
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void secKillUnderLoad() throws Exception {
+        Long voucherId = createVoucher();
+        try {
+            run(voucherId);
+        } finally {
+            cleanUp(voucherId);
+        }
+    }
+
+    private void run(Long voucherId) throws Exception {
+        //1.每个用户请求两次
+        long[] latencies = new long[users * 2];
+        AtomicInteger admitted = new AtomicInteger();
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long begin = System.nanoTime();
+        try {
+            for (int t = 0; t < threads; t++) {
+                pool.execute(() -> {
+                    try {
+                        int i;
+                        while ((i = next.getAndIncrement()) < users * 2) {
+                            UserHolder.saveUser(user(i % users));
+                            long start = System.nanoTime();
+                            Result result = voucherOrderService.secKillVoucher(voucherId);
+                            latencies[i] = System.nanoTime() - start;
+                            if (result.getSuccess()) {
+                                admitted.incrementAndGet();
+                            }
+                            UserHolder.removeUser();
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(drainTimeoutMillis, TimeUnit.MILLISECONDS), "抢购超时");
+        } finally {
+            pool.shutdownNow();
+        }
+        long admitNanos = System.nanoTime() - begin;
+
+        //2.等待消费者把订单全部写入数据库
+        long drainBegin = System.nanoTime();
+        long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        int persisted = countOrders(voucherId);
+        while (persisted < admitted.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            persisted = countOrders(voucherId);
+        }
+        long drainNanos = System.nanoTime() - drainBegin;
+
+        //3.报告
+        Arrays.sort(latencies);
+        List<String> report = new ArrayList<>();
+        report.add(String.format("用户数: %d, 请求数: %d, 库存: %d, 线程数: %d", users, latencies.length, stock, threads));
+        report.add(String.format("抢购成功: %d, 写入数据库: %d", admitted.get(), persisted));
+        report.add(String.format("下单吞吐: %.0f 次/秒", latencies.length / (admitNanos / 1e9)));
+        report.add(String.format("接口耗时 p50: %d us, p99: %d us",
+                percentile(latencies, 0.5) / 1000, percentile(latencies, 0.99) / 1000));
+        report.add(String.format("抢购结束后全部写入耗时: %d ms", TimeUnit.NANOSECONDS.toMillis(drainNanos)));
+        report.forEach(line -> log.info("秒杀压测 {}", line));
+        Files.createDirectories(REPORT.getParent());
+        Files.write(REPORT, report, StandardCharsets.UTF_8);
+
+        //4.不超卖、不重复下单、redis和数据库一致
+        List<VoucherOrder> orders = voucherOrderService.query().eq("voucher_id", voucherId).list();
+        long distinctUsers = orders.stream().map(VoucherOrder::getUserId).distinct().count();
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        String redisStock = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId);
+        Long redisOrders = stringRedisTemplate.opsForSet().size(SECKILL_ORDER_KEY + voucherId);
+
+        assertEquals(Math.min(users, stock), admitted.get());
+        assertEquals(admitted.get(), orders.size());
+        assertEquals(orders.size(), distinctUsers);
+        assertEquals(stock - orders.size(), seckillVoucher.getStock().intValue());
+        assertEquals(String.valueOf(seckillVoucher.getStock()), redisStock);
+        assertEquals(orders.size(), redisOrders == null ? 0 : redisOrders.intValue());
+    }
+
+    private Long createVoucher() {
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("秒杀压测")
+                .setPayValue(100L)
+                .setActualValue(1000L)
+                .setType(1)
+                .setStock(stock)
+                .setBeginTime(LocalDateTime.now().minusHours(1))
+                .setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    private void cleanUp(Long voucherId) {
+        voucherOrderService.remove(voucherOrderService.query().eq("voucher_id", voucherId).getWrapper());
+        seckillVoucherService.removeById(voucherId);
+        voucherService.removeById(voucherId);
+        List<String> keys = new ArrayList<>(users + 3);
+        keys.add(SECKILL_STOCK_KEY + voucherId);
+        keys.add(SECKILL_ORDER_KEY + voucherId);
+        keys.add(SECKILL_WINDOW_KEY + voucherId);
+        for (int i = 0; i < users; i++) {
+            keys.add(SECKILL_STATUS_KEY + voucherId + ":" + user(i).getId());
+        }
+        stringRedisTemplate.delete(keys);
+    }
+
+    private int countOrders(Long voucherId) {
+        return voucherOrderService.query().eq("voucher_id", voucherId).count();
+    }
+
+    private static UserDTO user(int i) {
+        UserDTO user = new UserDTO();
+        user.setId(1_000_000L + i);
+        return user;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+}
@@ -0,0 +1,286 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.codec.ShopCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.HOT_KEY_QPS_THRESHOLD;
+import static com.hmdp.utils.RedisConstants.HOT_KEY_WINDOW;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * CacheClient 单元测试，使用内存Map模拟redis
+ */
+class CacheClientTest {
+
+    private static final int THREADS = 64;
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ValueOperations<String, String> valueOperations;
+
+    private final CacheSerializer serializer = new CacheSerializer(Collections.singletonList(new ShopCodec()), true);
+
+    private final CacheMetrics metrics = new CacheMetrics();
+
+    private final HotKeyDetector hotKeyDetector = new HotKeyDetector();
+
+    // 访问redis加锁的次数
+    private final AtomicInteger redisLockCalls = new AtomicInteger();
+
+    private LockFacade lockFacade;
+
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(anyString())).thenAnswer(inv -> redis.get(inv.<String>getArgument(0)));
+        doAnswer(inv -> redis.put(inv.getArgument(0), inv.getArgument(1)))
+                .when(valueOperations).set(anyString(), anyString(), anyLong(), any(TimeUnit.class));
+        // 分布式锁脚本：锁key的值为线程标识
+        Object lockScript = ReflectionTestUtils.getField(SimpleRedisLock.class, "LOCK_SCRIPT");
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any())).thenAnswer(inv -> {
+            String key = inv.<List<String>>getArgument(1).get(0);
+            String owner = inv.getArgument(2);
+            if (inv.getArgument(0) == lockScript) {
+                redisLockCalls.incrementAndGet();
+                String holder = redis.putIfAbsent(key, owner);
+                return holder == null || holder.equals(owner) ? -1L : 1000L;
+            }
+            return redis.remove(key, owner) ? 1L : null;
+        });
+        when(valueOperations.multiGet(anyCollection())).thenAnswer(inv -> {
+            List<String> values = new ArrayList<>();
+            for (String key : inv.<Collection<String>>getArgument(0)) {
+                values.add(redis.get(key));
+            }
+            return values;
+        });
+
+        lockFacade = new LockFacade(stringRedisTemplate, null);
+        cacheClient = new CacheClient(stringRedisTemplate, new LocalCache(), mock(CacheInvalidationBus.class), serializer,
+                new CacheRefresher(), hotKeyDetector, metrics, lockFacade);
+    }
+
+    @Test
+    void concurrentMissesLoadOnce() throws Exception {
+        AtomicInteger dbCalls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(THREADS);
+        Function<Long, Shop> dbFallback = id -> {
+            dbCalls.incrementAndGet();
+            sleep(200);
+            return new Shop().setId(id).setName("shop" + id);
+        };
+
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        try {
+            Future<?>[] futures = new Future[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                futures[i] = es.submit(() -> {
+                    started.countDown();
+                    await(started);
+                    Shop shop = query(1L, dbFallback);
+                    assertEquals("shop1", shop.getName());
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            es.shutdownNow();
+        }
+
+        assertEquals(1, dbCalls.get());
+        assertEquals(1, metrics.count(CACHE_SHOP_KEY, CacheMetrics.Event.REBUILD_STARTED));
+        assertEquals(1, redisLockCalls.get());
+        // 锁已释放，缓存已写入
+        assertNull(redis.get(LOCK_SHOP_KEY + 1));
+        assertEquals("shop1", serializer.deserialize(redis.get(CACHE_SHOP_KEY + 1), Shop.class).getName());
+    }
+
+    @Test
+    void missingIdCachesEmptyValue() {
+        AtomicInteger dbCalls = new AtomicInteger();
+        Function<Long, Shop> dbFallback = id -> {
+            dbCalls.incrementAndGet();
+            return null;
+        };
+
+        assertNull(query(2L, dbFallback));
+        assertNull(query(2L, dbFallback));
+
+        assertEquals(1, dbCalls.get());
+        assertEquals("", redis.get(CACHE_SHOP_KEY + 2));
+    }
+
+    @Test
+    void failedLoadIsSharedAndRetried() throws Exception {
+        AtomicInteger dbCalls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(THREADS);
+        Function<Long, Shop> failing = id -> {
+            dbCalls.incrementAndGet();
+            sleep(200);
+            throw new IllegalStateException("db down");
+        };
+
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        try {
+            Future<?>[] futures = new Future[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                futures[i] = es.submit(() -> {
+                    started.countDown();
+                    await(started);
+                    assertThrows(IllegalStateException.class, () -> query(3L, failing));
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            es.shutdownNow();
+        }
+        assertEquals(1, dbCalls.get());
+        assertNull(redis.get(LOCK_SHOP_KEY + 3));
+
+        // 失败后不保留结果，下一次重新加载
+        Shop shop = query(3L, id -> new Shop().setId(id).setName("shop" + id));
+        assertEquals("shop3", shop.getName());
+    }
+
+    @Test
+    void hotKeyPinRefreshedOnRotate() {
+        String key = CACHE_SHOP_KEY + 5;
+        redis.put(key, serializer.serialize(new Shop().setId(5L).setName("v1")));
+        for (int i = 0; i < HOT_KEY_QPS_THRESHOLD * HOT_KEY_WINDOW; i++) {
+            hotKeyDetector.record(key);
+        }
+        assertEquals("v1", query(5L, id -> null).getName());
+
+        // 失效通知丢失，本地仍是旧值
+        redis.put(key, serializer.serialize(new Shop().setId(5L).setName("v2")));
+        assertEquals("v1", query(5L, id -> null).getName());
+
+        // 窗口滑动后从redis重新读取并续期
+        ReflectionTestUtils.invokeMethod(hotKeyDetector, "rotate");
+        assertEquals("v2", query(5L, id -> null).getName());
+
+        // redis中已删除，固定的值随之移除
+        redis.remove(key);
+        ReflectionTestUtils.invokeMethod(hotKeyDetector, "rotate");
+        assertNull(query(5L, id -> null));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void batchLoadsMissesInOneQuery() {
+        long expireTime = System.currentTimeMillis() + 60_000;
+        redis.put(CACHE_SHOP_KEY + 1, serializer.serializeWithExpire(new Shop().setId(1L).setName("shop1"), expireTime));
+        // pipeline 写入内存Map
+        StringRedisConnection conn = mock(StringRedisConnection.class);
+        when(conn.set(anyString(), anyString())).thenAnswer(inv -> redis.put(inv.getArgument(0), inv.getArgument(1)) == null);
+        when(conn.setEx(anyString(), anyLong(), anyString())).thenAnswer(inv -> redis.put(inv.getArgument(0), inv.getArgument(2)) == null);
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(inv -> {
+            inv.<RedisCallback<Object>>getArgument(0).doInRedis(conn);
+            return Collections.emptyList();
+        });
+        AtomicInteger dbCalls = new AtomicInteger();
+        Function<Collection<Long>, List<Shop>> dbBatchFallback = ids -> {
+            dbCalls.incrementAndGet();
+            List<Shop> shops = new ArrayList<>();
+            for (Long id : ids) {
+                if (id != 4L) {
+                    shops.add(new Shop().setId(id).setName("shop" + id));
+                }
+            }
+            return shops;
+        };
+
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, LOCK_SHOP_KEY, Arrays.asList(3L, 1L, 4L, 2L),
+                Shop.class, dbBatchFallback, Shop::getId, 30L, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(3L, 1L, 2L), shops.stream().map(Shop::getId).collect(Collectors.toList()));
+        assertEquals(1, dbCalls.get());
+        verify(valueOperations, times(1)).multiGet(anyCollection());
+        verify(stringRedisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+
+        // 数据库中不存在的id缓存空值
+        assertEquals("", redis.get(CACHE_SHOP_KEY + 4));
+
+        // 再次查询全部命中本地缓存，包括空值
+        cacheClient.queryBatch(CACHE_SHOP_KEY, LOCK_SHOP_KEY, Arrays.asList(1L, 2L, 3L, 4L),
+                Shop.class, dbBatchFallback, Shop::getId, 30L, TimeUnit.SECONDS);
+        assertEquals(1, dbCalls.get());
+        verify(valueOperations, times(1)).multiGet(anyCollection());
+
+        // 其他节点(本地缓存为空)命中redis中的空值，不查询数据库
+        CacheClient other = new CacheClient(stringRedisTemplate, new LocalCache(), mock(CacheInvalidationBus.class),
+                serializer, new CacheRefresher(), new HotKeyDetector(), metrics, lockFacade);
+        assertEquals(Collections.emptyList(), other.queryBatch(CACHE_SHOP_KEY, LOCK_SHOP_KEY, Collections.singletonList(4L),
+                Shop.class, dbBatchFallback, Shop::getId, 30L, TimeUnit.SECONDS));
+        assertEquals(1, dbCalls.get());
+    }
+
+    private Shop query(Long id, Function<Long, Shop> dbFallback) {
+        return cacheClient.queryWithMutex(
+                CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, dbFallback, 30L, TimeUnit.MINUTES);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.codec.ShopCodec;
+import com.hmdp.utils.codec.ShopTypeCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * CacheSerializer 单元测试
+ */
+@Slf4j
+class CacheSerializerTest {
+
+    private final CacheSerializer serializer = new CacheSerializer(
+            Arrays.asList(new ShopCodec(), new ShopTypeCodec()), true);
+
+    // 默认配置：只读二进制，仍写json
+    private final CacheSerializer jsonWriter = new CacheSerializer(
+            Arrays.asList(new ShopCodec(), new ShopTypeCodec()), false);
+
+    @Test
+    void shopRoundTrip() {
+        Shop shop = shop();
+        String data = serializer.serialize(shop);
+        assertTrue(data.startsWith("#"));
+        assertEquals(shop, serializer.deserialize(data, Shop.class));
+    }
+
+    @Test
+    void nullFieldsRoundTrip() {
+        Shop shop = new Shop().setId(1L);
+        assertEquals(shop, serializer.deserialize(serializer.serialize(shop), Shop.class));
+    }
+
+    @Test
+    void logicExpireUsesMillisHeader() {
+        Shop shop = shop();
+        long expireTime = System.currentTimeMillis() + 30_000;
+        CacheSerializer.Entry<Shop> entry =
+                serializer.deserializeWithExpire(serializer.serializeWithExpire(shop, expireTime), Shop.class);
+        assertEquals(shop, entry.getData());
+        assertEquals(expireTime, entry.getExpireTime());
+        assertFalse(entry.isExpired());
+    }
+
+    @Test
+    void readsExistingJson() {
+        Shop shop = shop();
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        CacheSerializer.Entry<Shop> entry =
+                serializer.deserializeWithExpire(JSONUtil.toJsonStr(redisData), Shop.class);
+        assertEquals(shop.getName(), entry.getData().getName());
+        assertTrue(entry.isExpired());
+
+        assertEquals(shop.getName(), serializer.deserialize(JSONUtil.toJsonStr(shop), Shop.class).getName());
+    }
+
+    @Test
+    void writesJsonUntilEnabled() {
+        Shop shop = shop();
+        String data = jsonWriter.serialize(shop);
+        assertTrue(data.startsWith("{"));
+        assertEquals(shop, jsonWriter.deserialize(data, Shop.class));
+        String withExpire = jsonWriter.serializeWithExpire(shop, System.currentTimeMillis() + 30_000);
+        // 旧版本节点按 RedisData 读取
+        RedisData redisData = JSONUtil.toBean(withExpire, RedisData.class);
+        assertEquals(shop.getName(), JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class).getName());
+        // 开启的节点写入的二进制格式仍可读取
+        assertEquals(shop, jsonWriter.deserialize(serializer.serialize(shop), Shop.class));
+    }
+
+    @Test
+    void shopTypeList() {
+        List<ShopType> types = Arrays.asList(
+                new ShopType().setId(1L).setName("美食").setIcon("/types/ms.png").setSort(1),
+                new ShopType().setId(2L).setName("KTV").setSort(2));
+        assertEquals(types, serializer.deserializeList(serializer.serializeList(types, ShopType.class), ShopType.class));
+        assertEquals(Collections.emptyList(),
+                serializer.deserializeList(serializer.serializeList(Collections.<ShopType>emptyList(), ShopType.class), ShopType.class));
+    }
+
+    /**
+     * 与原来的json方式对比：内容一致，写入redis的字节数更少
+     */
+    @Test
+    void smallerThanJson() {
+        Shop shop = shop();
+        long expireTime = System.currentTimeMillis() + 30_000;
+
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(30));
+        String json = JSONUtil.toJsonStr(redisData);
+        String binary = serializer.serializeWithExpire(shop, expireTime);
+
+        assertEquals(serializer.deserializeWithExpire(json, Shop.class).getData(),
+                serializer.deserializeWithExpire(binary, Shop.class).getData());
+        // redis中按UTF-8字节存储
+        assertTrue(binary.getBytes(StandardCharsets.UTF_8).length < json.getBytes(StandardCharsets.UTF_8).length,
+                "binary " + binary.length() + " / json " + json.length());
+    }
+
+    /**
+     * 与原来的json方式对比读写耗时，属于压测，默认不执行：mvn test -Pload-test
+     */
+    @Test
+    @Tag("load")
+    void compareWithJson() {
+        Shop shop = shop();
+        long expireTime = System.currentTimeMillis() + 30_000;
+        int rounds = Integer.getInteger("codec.rounds", 200_000);
+
+        // 预热
+        writeAndRead(shop, jsonWriter, rounds / 10);
+        writeAndRead(shop, serializer, rounds / 10);
+
+        long begin = System.nanoTime();
+        writeAndRead(shop, jsonWriter, rounds);
+        long jsonNanos = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        writeAndRead(shop, serializer, rounds);
+        long binaryNanos = System.nanoTime() - begin;
+
+        int jsonBytes = jsonWriter.serializeWithExpire(shop, expireTime).getBytes(StandardCharsets.UTF_8).length;
+        int binaryBytes = serializer.serializeWithExpire(shop, expireTime).getBytes(StandardCharsets.UTF_8).length;
+        log.info("json  : {} 字节, 写入+读取 {} ns/次", jsonBytes, jsonNanos / rounds);
+        log.info("binary: {} 字节, 写入+读取 {} ns/次", binaryBytes, binaryNanos / rounds);
+        assertTrue(binaryNanos < jsonNanos, "binary " + binaryNanos + "ns / json " + jsonNanos + "ns");
+    }
+
+    // 写入再读取，与查询缓存未命中后回写、下次命中的路径一致
+    private static void writeAndRead(Shop shop, CacheSerializer serializer, int rounds) {
+        long expireTime = System.currentTimeMillis() + 30_000;
+        for (int i = 0; i < rounds; i++) {
+            serializer.deserializeWithExpire(serializer.serializeWithExpire(shop, expireTime), Shop.class);
+        }
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static com.hmdp.utils.RedisConstants.HOT_KEY_PIN_TTL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * LocalCache 热点key固定的单元测试
+ */
+class LocalCacheTest {
+
+    @Test
+    void pinOutlivesLocalTtl() throws Exception {
+        LocalCache cache = new LocalCache(100, 50);
+        cache.put("k", "v1");
+        cache.pin("k", "v1", HOT_KEY_PIN_TTL);
+        Thread.sleep(100);
+        // 普通条目已过期，固定的值仍可读取
+        assertEquals("v1", cache.get("k"));
+        cache.put("k2", "v");
+        Thread.sleep(100);
+        assertNull(cache.get("k2"));
+    }
+
+    @Test
+    void putReplacesPinnedValue() {
+        LocalCache cache = new LocalCache(100, 5000);
+        cache.pin("k", "old", HOT_KEY_PIN_TTL);
+        cache.put("k", "new");
+        assertEquals("new", cache.get("k"));
+        cache.put("k", null);
+        assertEquals(LocalCache.NULL_VALUE, cache.get("k"));
+        cache.invalidate("k");
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    void pinNeverOutlivesLogicExpire() throws Exception {
+        LocalCache cache = new LocalCache(100, 5000);
+        cache.pin("k", "old", HOT_KEY_PIN_TTL);
+        // 逻辑过期时间只剩50ms
+        cache.put("k", "new", 50);
+        Thread.sleep(100);
+        assertNull(cache.get("k"));
+    }
+}
@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * LocalFirstLock 单元测试，统计访问分布式锁的次数
+ */
+class LocalFirstLockTest {
+
+    private static final int THREADS = 16;
+
+    private final CountingLock redisLock = new CountingLock();
+
+    private final LocalFirstLock.LocalLocks locals = new LocalFirstLock.LocalLocks();
+
+    @Test
+    void sameNodeContendersDoNotReachRedis() throws Exception {
+        LocalFirstLock holder = lock("lock:order:1");
+        assertTrue(holder.tryLock(10));
+
+        AtomicInteger acquired = new AtomicInteger();
+        run(() -> {
+            if (lock("lock:order:1").tryLock(10)) {
+                acquired.incrementAndGet();
+            }
+            return null;
+        });
+        holder.unlock();
+
+        assertEquals(0, acquired.get());
+        assertEquals(1, redisLock.attempts.get());
+    }
+
+    @Test
+    void localWaitersAreHandedOff() throws Exception {
+        AtomicInteger acquired = new AtomicInteger();
+        run(() -> {
+            LocalFirstLock lock = lock("lock:order:1");
+            if (lock.tryLock(5, -1, TimeUnit.SECONDS)) {
+                acquired.incrementAndGet();
+                Thread.sleep(5);
+                lock.unlock();
+            }
+            return null;
+        });
+
+        assertEquals(THREADS, acquired.get());
+        // 每个线程只在轮到自己时访问一次redis
+        assertEquals(THREADS, redisLock.attempts.get());
+        assertEquals(0, locals.size());
+    }
+
+    @Test
+    void differentKeysDoNotWait() throws Exception {
+        LocalFirstLock first = lock("lock:order:1");
+        assertTrue(first.tryLock(10));
+        // 其他key不受影响，只在redis中竞争
+        CountingLock other = new CountingLock();
+        AtomicInteger acquired = new AtomicInteger();
+        Thread thread = new Thread(() -> {
+            LocalFirstLock second = new LocalFirstLock(other, "lock:order:2", locals);
+            if (second.tryLock(10)) {
+                acquired.incrementAndGet();
+                second.unlock();
+            }
+        });
+        thread.start();
+        thread.join(5000);
+        assertEquals(1, acquired.get());
+        assertEquals(1, locals.size());
+        first.unlock();
+        assertEquals(0, locals.size());
+    }
+
+    @Test
+    void reentrantHoldsStayInStep() throws Exception {
+        LocalFirstLock lock = lock("lock:order:1");
+        assertTrue(lock.tryLock(10));
+        assertTrue(lock.tryLock(0, 10, TimeUnit.SECONDS));
+        lock.unlock();
+        assertTrue(lock.isHeldByCurrentThread());
+        lock.unlock();
+        assertFalse(lock.isHeldByCurrentThread());
+        assertEquals(0, redisLock.holds);
+        assertEquals(0, locals.size());
+    }
+
+    @Test
+    void failedAttemptReleasesLocalLock() {
+        CountingLock busy = new CountingLock() {
+            @Override
+            public boolean tryLock(long timeoutSec) {
+                attempts.incrementAndGet();
+                return false;
+            }
+        };
+        assertFalse(new LocalFirstLock(busy, "lock:shop:1", locals).tryLock(10));
+        assertEquals(0, locals.size());
+    }
+
+    private LocalFirstLock lock(String key) {
+        return new LocalFirstLock(redisLock, key, locals);
+    }
+
+    private static void run(Callable<?> task) throws Exception {
+        CountDownLatch started = new CountDownLatch(THREADS);
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        try {
+            Future<?>[] futures = new Future[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                futures[i] = es.submit(() -> {
+                    started.countDown();
+                    started.await();
+                    return task.call();
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    /**
+     * 可重入的分布式锁替身，统计加锁次数
+     */
+    private static class CountingLock implements ILock {
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicReference<Thread> owner = new AtomicReference<>();
+        volatile int holds;
+
+        @Override
+        public boolean tryLock(long timeoutSec) {
+            attempts.incrementAndGet();
+            Thread current = Thread.currentThread();
+            if (owner.compareAndSet(null, current) || owner.get() == current) {
+                holds++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) {
+            return tryLock(leaseTime);
+        }
+
+        @Override
+        public boolean isHeldByCurrentThread() {
+            return owner.get() == Thread.currentThread();
+        }
+
+        @Override
+        public void unlock() {
+            if (--holds == 0) {
+                owner.set(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * RedisIdWorker 单元测试，使用内存计数器模拟redis，每次INCR/INCRBY模拟一次网络往返
+ */
+class RedisIdWorkerTest {
+
+    private static final int THREADS = 32;
+    private static final int IDS_PER_THREAD = 2000;
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private final AtomicInteger redisCalls = new AtomicInteger();
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ValueOperations<String, String> valueOperations;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString())).thenAnswer(inv -> incrBy(inv.getArgument(0), 1));
+        when(valueOperations.increment(anyString(), anyLong())).thenAnswer(inv -> incrBy(inv.getArgument(0), inv.getArgument(1)));
+    }
+
+    @Test
+    void segmentIdsAreUniqueAndMonotonic() throws Exception {
+        RedisIdWorker segment = worker("segment", 100);
+        // 秒杀lua脚本直接INCR同一个key
+        RedisIdWorker legacy = worker("redis", 0);
+
+        List<List<Long>> results = generate(segment, legacy);
+
+        Set<Long> ids = new HashSet<>();
+        for (List<Long> list : results) {
+            for (int i = 0; i < list.size(); i++) {
+                assertTrue(ids.add(list.get(i)), "重复的id：" + list.get(i));
+                // 同一线程拿到的号段id递增（偶数位置为号段id）
+                if (i >= 2 && i % 2 == 0) {
+                    assertTrue(list.get(i) > list.get(i - 2));
+                }
+            }
+        }
+        assertEquals(THREADS * IDS_PER_THREAD * 2, ids.size());
+    }
+
+    @Test
+    void segmentModeReducesRoundTrips() throws Exception {
+        int step = 1000;
+        long legacyNanos = time(worker("redis", 0));
+        int legacyCalls = redisCalls.getAndSet(0);
+        long segmentNanos = time(worker("segment", step));
+        int segmentCalls = redisCalls.get();
+
+        System.out.printf("redis模式：%d 次INCR，%d ms%n", legacyCalls, TimeUnit.NANOSECONDS.toMillis(legacyNanos));
+        System.out.printf("号段模式：%d 次INCRBY，%d ms%n", segmentCalls, TimeUnit.NANOSECONDS.toMillis(segmentNanos));
+        assertEquals(THREADS * IDS_PER_THREAD, legacyCalls);
+        // 预取最多多预留一段
+        assertTrue(segmentCalls <= THREADS * IDS_PER_THREAD / step + 1);
+    }
+
+    @Test
+    void localIdsAreUniqueAndDoNotOverlapLegacyLayout() throws Exception {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+        RedisIdWorker local = worker("snowflake", 0);
+        ReflectionTestUtils.invokeMethod(local, "init");
+        RedisIdWorker legacy = worker("redis", 0);
+        try {
+            List<List<Long>> results = generate(local, legacy);
+            Set<Long> ids = new HashSet<>();
+            for (List<Long> list : results) {
+                for (int i = 0; i < list.size(); i++) {
+                    assertTrue(ids.add(list.get(i)), "重复的id：" + list.get(i));
+                    if (i % 2 == 0) {
+                        // 本地id带标志位，原布局的id不会达到2^62
+                        assertTrue(list.get(i) >= 1L << 62);
+                        assertTrue(list.get(i + 1) < 1L << 62);
+                        if (i >= 2) {
+                            assertTrue(list.get(i) > list.get(i - 2));
+                        }
+                    }
+                }
+            }
+            assertEquals(THREADS * IDS_PER_THREAD * 2, ids.size());
+        } finally {
+            ReflectionTestUtils.invokeMethod(local, "destroy");
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void localModeStopsWhenLeaseIsLost() {
+        // 第一次租用成功，之后所有workerId都被其他节点占用
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.MILLISECONDS)))
+                .thenReturn(true, false);
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(0L);
+        RedisIdWorker local = worker("snowflake", 0);
+        ReflectionTestUtils.invokeMethod(local, "init");
+        try {
+            local.next("order");
+            ReflectionTestUtils.invokeMethod(local, "renewLease");
+            assertThrows(IllegalStateException.class, () -> local.next("order"));
+        } finally {
+            ReflectionTestUtils.invokeMethod(local, "destroy");
+        }
+    }
+
+    private RedisIdWorker worker(String mode, int step) {
+        RedisIdWorker worker = new RedisIdWorker(stringRedisTemplate);
+        ReflectionTestUtils.setField(worker, "mode", mode);
+        ReflectionTestUtils.setField(worker, "segmentStep", step);
+        return worker;
+    }
+
+    private long incrBy(String key, long delta) {
+        redisCalls.incrementAndGet();
+        LockSupport.parkNanos(ROUND_TRIP_NANOS);
+        return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta);
+    }
+
+    private List<List<Long>> generate(RedisIdWorker worker, RedisIdWorker legacy) throws Exception {
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(es.submit(() -> {
+                    List<Long> ids = new ArrayList<>(IDS_PER_THREAD * 2);
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        ids.add(worker.next("order"));
+                        ids.add(legacy.next("order"));
+                    }
+                    return ids;
+                }));
+            }
+            List<List<Long>> results = new ArrayList<>();
+            for (Future<List<Long>> future : futures) {
+                results.add(future.get(60, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    private long time(RedisIdWorker worker) throws Exception {
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        try {
+            long begin = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(es.submit(() -> {
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        worker.next("order");
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            return System.nanoTime() - begin;
+        } finally {
+            es.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * SeckillStockReconciler 单元测试，redis和数据库都用内存数据模拟
+ */
+class SeckillStockReconcilerTest {
+
+    // redis
+    private final Map<String, String> strings = new TreeMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+
+    // 数据库：优惠券库存、订单
+    private final Map<Long, Integer> dbStock = new HashMap<>();
+    private final List<VoucherOrder> orders = new ArrayList<>();
+
+    private final AtomicInteger stockQueries = new AtomicInteger();
+
+    // 第二次及之后查询数据库库存时的变化，模拟对账期间写入的订单
+    private volatile int stockChange;
+
+    private StringRedisTemplate template;
+
+    private SoldOutRegistry soldOutRegistry;
+
+    private SeckillStockReconciler reconciler;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        SetOperations<String, String> setOperations = mock(SetOperations.class);
+        when(template.opsForValue()).thenReturn(valueOperations);
+        when(template.opsForSet()).thenReturn(setOperations);
+
+        // SCAN seckill:stock:*
+        when(template.executeWithStickyConnection(any())).thenAnswer(inv -> cursor(strings.keySet().stream()
+                .filter(key -> key.startsWith(SECKILL_STOCK_KEY))
+                .map(key -> key.getBytes(StandardCharsets.UTF_8))
+                .collect(Collectors.toList())));
+        // pipeline GET / SCARD / SADD
+        List<Object> results = new ArrayList<>();
+        StringRedisConnection conn = mock(StringRedisConnection.class);
+        when(conn.get(anyString())).thenAnswer(i -> {
+            results.add(strings.get(i.<String>getArgument(0)));
+            return null;
+        });
+        when(conn.sCard(anyString())).thenAnswer(i -> {
+            results.add((long) set(i.getArgument(0)).size());
+            return null;
+        });
+        when(conn.sAdd(anyString(), anyString())).thenAnswer(i -> {
+            results.add(set(i.getArgument(0)).add(i.getArgument(1)) ? 1L : 0L);
+            return null;
+        });
+        when(template.executePipelined(any(RedisCallback.class))).thenAnswer(inv -> {
+            results.clear();
+            inv.<RedisCallback<Object>>getArgument(0).doInRedis(conn);
+            return new ArrayList<>(results);
+        });
+        when(valueOperations.get(anyString())).thenAnswer(inv -> strings.get(inv.<String>getArgument(0)));
+        when(valueOperations.increment(anyString(), anyLong())).thenAnswer(inv -> add(inv.getArgument(0), inv.getArgument(1)));
+        when(valueOperations.decrement(anyString(), anyLong())).thenAnswer(inv -> add(inv.getArgument(0), -inv.<Long>getArgument(1)));
+        when(setOperations.scan(anyString(), any(ScanOptions.class)))
+                .thenAnswer(inv -> cursor(new ArrayList<>(set(inv.getArgument(0)))));
+        when(setOperations.remove(anyString(), any())).thenAnswer(inv -> {
+            Set<String> set = set(inv.getArgument(0));
+            long removed = 0;
+            for (int i = 1; i < inv.getArguments().length; i++) {
+                removed += set.remove(inv.getArguments()[i]) ? 1 : 0;
+            }
+            return removed;
+        });
+
+        ISeckillVoucherService seckillVoucherService = mock(ISeckillVoucherService.class);
+        when(seckillVoucherService.listByIds(anyCollection())).thenAnswer(inv -> {
+            int change = stockQueries.getAndIncrement() == 0 ? 0 : stockChange;
+            return inv.<Collection<Long>>getArgument(0).stream()
+                    .filter(dbStock::containsKey)
+                    .map(id -> new SeckillVoucher().setVoucherId(id).setStock(dbStock.get(id) + change))
+                    .collect(Collectors.toList());
+        });
+        IVoucherOrderService voucherOrderService = mock(IVoucherOrderService.class);
+        when(voucherOrderService.listMaps(any())).thenAnswer(inv -> {
+            Map<Long, Long> counts = orders.stream()
+                    .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+            List<Map<String, Object>> rows = new ArrayList<>();
+            counts.forEach((voucherId, total) -> {
+                Map<String, Object> row = new HashMap<>();
+                row.put("voucher_id", voucherId);
+                row.put("total", total);
+                rows.add(row);
+            });
+            return rows;
+        });
+        VoucherOrderMapper voucherOrderMapper = mock(VoucherOrderMapper.class);
+        when(voucherOrderMapper.selectOrderedUserIds(anyLong(), anyCollection())).thenAnswer(inv -> orders.stream()
+                .filter(o -> o.getVoucherId().equals(inv.getArgument(0)))
+                .map(VoucherOrder::getUserId)
+                .filter(inv.<Collection<Long>>getArgument(1)::contains)
+                .collect(Collectors.toList()));
+        when(voucherOrderMapper.selectUsersAfter(anyLong(), anyLong(), anyInt())).thenAnswer(inv -> orders.stream()
+                .filter(o -> o.getVoucherId().equals(inv.getArgument(0)) && o.getId() > inv.<Long>getArgument(1))
+                .sorted((a, b) -> Long.compare(a.getId(), b.getId()))
+                .limit(inv.<Integer>getArgument(2))
+                .collect(Collectors.toList()));
+
+        // 对账锁：加锁脚本返回-1表示获取成功，释放脚本返回1表示完全释放
+        Object lockScript = ReflectionTestUtils.getField(SimpleRedisLock.class, "LOCK_SCRIPT");
+        when(template.execute(any(RedisScript.class), anyList(), any(), any()))
+                .thenAnswer(inv -> inv.getArgument(0) == lockScript ? -1L : 1L);
+        soldOutRegistry = mock(SoldOutRegistry.class);
+
+        reconciler = new SeckillStockReconciler();
+        ReflectionTestUtils.setField(reconciler, "seckillVoucherService", seckillVoucherService);
+        ReflectionTestUtils.setField(reconciler, "voucherOrderService", voucherOrderService);
+        ReflectionTestUtils.setField(reconciler, "voucherOrderMapper", voucherOrderMapper);
+        ReflectionTestUtils.setField(reconciler, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(reconciler, "soldOutRegistry", soldOutRegistry);
+        ReflectionTestUtils.setField(reconciler, "repair", true);
+        ReflectionTestUtils.setField(reconciler, "stableMillis", 0L);
+        ReflectionTestUtils.setField(reconciler, "batchSize", 200);
+        ReflectionTestUtils.setField(reconciler, "pauseMillis", 0L);
+    }
+
+    @Test
+    void comparesPlainAndSegmentedKeys() {
+        ReflectionTestUtils.setField(reconciler, "stableMillis", 60_000L);
+        // 普通库存，一致
+        strings.put(SECKILL_STOCK_KEY + "7", "5");
+        dbStock.put(7L, 5);
+        // 分段库存，两段求和为5，数据库为4；分段订单集合各有一个用户
+        strings.put(SeckillStockSegments.stockKey(8L, 0), "2");
+        strings.put(SeckillStockSegments.stockKey(8L, 1), "3");
+        dbStock.put(8L, 4);
+        set(SeckillStockSegments.orderKey(8L, 0)).add("2");
+        set(SeckillStockSegments.orderKey(8L, 1)).add("1");
+        order(1, 8, 1);
+        // 无法解析的key、数据库中已删除的优惠券不对账
+        strings.put(SECKILL_STOCK_KEY + "abc", "1");
+        strings.put(SECKILL_STOCK_KEY + "{x:1}", "1");
+        strings.put(SECKILL_STOCK_KEY + "9", "1");
+
+        reconcile();
+
+        String metrics = reconciler.scrape();
+        assertTrue(metrics.contains("seckill_reconcile_vouchers_checked_total 2"), metrics);
+        assertTrue(metrics.contains("seckill_reconcile_drifting_vouchers 1"), metrics);
+        assertTrue(metrics.contains("seckill_stock_drift{voucher_id=\"8\",kind=\"stock\"} -1"), metrics);
+        assertTrue(metrics.contains("seckill_stock_drift{voucher_id=\"8\",kind=\"orders\"} 1"), metrics);
+        assertFalse(metrics.contains("voucher_id=\"7\""), metrics);
+    }
+
+    @Test
+    void repairsOnlyAfterStableWindow() throws Exception {
+        ReflectionTestUtils.setField(reconciler, "stableMillis", 200L);
+        strings.put(SECKILL_STOCK_KEY + "7", "3");
+        dbStock.put(7L, 5);
+
+        reconcile();
+        assertEquals("3", strings.get(SECKILL_STOCK_KEY + "7"));
+
+        Thread.sleep(250);
+        reconcile();
+        assertEquals("5", strings.get(SECKILL_STOCK_KEY + "7"));
+        // 补回库存后清除售罄标记
+        verify(soldOutRegistry).replenish(7L);
+    }
+
+    @Test
+    void changedSnapshotIsNotRepaired() {
+        strings.put(SECKILL_STOCK_KEY + "7", "3");
+        dbStock.put(7L, 5);
+        // 修复前重新对比时数据库库存已变化
+        stockChange = -1;
+
+        reconcile();
+
+        assertEquals("3", strings.get(SECKILL_STOCK_KEY + "7"));
+        verify(soldOutRegistry, never()).replenish(7L);
+        assertTrue(reconciler.scrape().contains("seckill_stock_drift{voucher_id=\"7\",kind=\"stock\"} 1"));
+    }
+
+    @Test
+    void ghostUsersRemovedOnlyAfterTwoRuns() {
+        // 用户1、2抢购成功，只有用户1的订单写入数据库
+        strings.put(SECKILL_STOCK_KEY + "7", "3");
+        set(SECKILL_ORDER_KEY + "7").addAll(Arrays.asList("1", "2"));
+        dbStock.put(7L, 4);
+        order(1, 7, 1);
+
+        //1.第一次只补库存，用户2记录下来待确认
+        reconcile();
+        assertEquals("4", strings.get(SECKILL_STOCK_KEY + "7"));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), set(SECKILL_ORDER_KEY + "7"));
+        verify(soldOutRegistry).replenish(7L);
+
+        //2.第二次仍没有订单，移除
+        reconcile();
+        assertEquals(Collections.singleton("1"), set(SECKILL_ORDER_KEY + "7"));
+        assertEquals("4", strings.get(SECKILL_STOCK_KEY + "7"));
+    }
+
+    @Test
+    void userWhoseOrderArrivesIsKept() {
+        strings.put(SECKILL_STOCK_KEY + "7", "4");
+        set(SECKILL_ORDER_KEY + "7").addAll(Arrays.asList("1", "2"));
+        dbStock.put(7L, 4);
+        order(1, 7, 1);
+
+        reconcile();
+        // 用户2的订单在两次对账之间写入
+        order(2, 7, 2);
+        dbStock.put(7L, 3);
+        strings.put(SECKILL_STOCK_KEY + "7", "3");
+        reconcile();
+
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), set(SECKILL_ORDER_KEY + "7"));
+        assertTrue(reconciler.scrape().contains("seckill_reconcile_drifting_vouchers 0"));
+    }
+
+    @Test
+    void missingUsersAddedToTheirSegment() {
+        strings.put(SeckillStockSegments.stockKey(8L, 0), "1");
+        strings.put(SeckillStockSegments.stockKey(8L, 1), "1");
+        dbStock.put(8L, 2);
+        order(1, 8, 1);
+        order(2, 8, 2);
+
+        reconcile();
+
+        assertEquals(Collections.singleton("2"), set(SeckillStockSegments.orderKey(8L, 0)));
+        assertEquals(Collections.singleton("1"), set(SeckillStockSegments.orderKey(8L, 1)));
+        verify(soldOutRegistry, never()).replenish(eq(8L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void skipsWhenAnotherNodeHoldsLock() {
+        // 加锁脚本返回锁的剩余时间，表示其他节点正在对账
+        when(template.execute(any(RedisScript.class), anyList(), any(), any())).thenReturn(1000L);
+        strings.put(SECKILL_STOCK_KEY + "7", "3");
+        dbStock.put(7L, 5);
+
+        reconcile();
+
+        assertEquals("3", strings.get(SECKILL_STOCK_KEY + "7"));
+        assertTrue(reconciler.scrape().contains("seckill_reconcile_vouchers_checked_total 0"));
+    }
+
+    private void reconcile() {
+        ReflectionTestUtils.invokeMethod(reconciler, "reconcile");
+    }
+
+    private void order(long id, long voucherId, long userId) {
+        orders.add(new VoucherOrder().setId(id).setVoucherId(voucherId).setUserId(userId));
+    }
+
+    private Set<String> set(String key) {
+        return sets.computeIfAbsent(key, k -> new HashSet<>());
+    }
+
+    private long add(String key, long delta) {
+        long value = Long.parseLong(strings.getOrDefault(key, "0")) + delta;
+        strings.put(key, String.valueOf(value));
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Cursor<T> cursor(List<T> values) {
+        Iterator<T> iterator = values.iterator();
+        Cursor<T> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(inv -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(inv -> iterator.next());
+        return cursor;
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * SeckillWindowCache 单元测试
+ */
+class SeckillWindowCacheTest {
+
+    private ISeckillVoucherService seckillVoucherService;
+
+    private SeckillWindowCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+        when(template.<Object, Object>opsForHash()).thenReturn(hashOperations);
+        // redis中没有秒杀时间
+        when(hashOperations.multiGet(anyString(), anyCollection())).thenReturn(Arrays.asList(null, null));
+        seckillVoucherService = mock(ISeckillVoucherService.class);
+
+        cache = new SeckillWindowCache();
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(cache, "seckillVoucherService", seckillVoucherService);
+    }
+
+    @Test
+    void missingVoucherRejectedLocally() {
+        long now = System.currentTimeMillis();
+        assertEquals(SeckillWindowCache.NOT_FOUND, cache.check(404L, now));
+        assertEquals(SeckillWindowCache.NOT_FOUND, cache.check(404L, now));
+        // 不存在的秒杀券只查询一次数据库
+        verify(seckillVoucherService, times(1)).getById(anyLong());
+    }
+
+    @Test
+    void loadsWindowFromDb() {
+        LocalDateTime now = LocalDateTime.now();
+        when(seckillVoucherService.getById(7L)).thenReturn(new SeckillVoucher()
+                .setVoucherId(7L).setBeginTime(now.plusMinutes(1)).setEndTime(now.plusMinutes(2)));
+        long millis = SeckillWindowCache.toMillis(now);
+
+        assertEquals(SeckillWindowCache.NOT_STARTED, cache.check(7L, millis));
+        assertEquals(SeckillWindowCache.OPEN, cache.check(7L, millis + 90_000));
+        assertEquals(SeckillWindowCache.ENDED, cache.check(7L, millis + 180_000));
+        verify(seckillVoucherService, times(1)).getById(anyLong());
+    }
+}
@@ -0,0 +1,177 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.LOCK_UNLOCK_CHANNEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * SimpleRedisLock 单元测试，在内存中执行加锁、释放、续期脚本的逻辑
+ */
+class SimpleRedisLockTest {
+
+    private InMemoryLockRedis redis;
+
+    private RedisLockNotifier notifier;
+
+    @BeforeEach
+    void setUp() {
+        notifier = new RedisLockNotifier(mock(RedisMessageListenerContainer.class));
+        redis = new InMemoryLockRedis(notifier);
+    }
+
+    @Test
+    void reentrantLockReleasedAfterLastUnlock() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(redis, "order:1", notifier);
+        assertTrue(lock.tryLock(10));
+        assertTrue(lock.tryLock(0, 10, TimeUnit.SECONDS));
+        assertEquals(2, redis.holds("lock:order:1"));
+
+        lock.unlock();
+        assertEquals(1, redis.holds("lock:order:1"));
+        // 其他线程拿不到
+        assertFalse(otherThread(() -> new SimpleRedisLock(redis, "order:1", notifier).tryLock(10)));
+
+        lock.unlock();
+        assertEquals(0, redis.holds("lock:order:1"));
+        assertTrue(otherThread(() -> new SimpleRedisLock(redis, "order:1", notifier).tryLock(10)));
+    }
+
+    @Test
+    void waitersAreHandedOffOnUnlock() throws Exception {
+        int threads = 8;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger acquired = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] futures = new Future[threads];
+            for (int i = 0; i < threads; i++) {
+                futures[i] = es.submit(() -> {
+                    SimpleRedisLock lock = new SimpleRedisLock(redis, "shop:1", notifier);
+                    // 锁的TTL足够长，只能靠释放通知拿到锁
+                    if (lock.tryLock(5, 60, TimeUnit.SECONDS)) {
+                        assertEquals(1, inside.incrementAndGet());
+                        sleep(20);
+                        inside.decrementAndGet();
+                        acquired.incrementAndGet();
+                        lock.unlock();
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            es.shutdownNow();
+        }
+        assertEquals(threads, acquired.get());
+        // 等待期间没有轮询：每个线程第一次失败后只在收到通知时重试
+        assertTrue(redis.lockCalls.get() < threads * 3, "加锁脚本执行次数：" + redis.lockCalls.get());
+    }
+
+    @Test
+    void waitTimesOut() throws Exception {
+        SimpleRedisLock lock = new SimpleRedisLock(redis, "order:2", notifier);
+        assertTrue(lock.tryLock(10));
+        long begin = System.nanoTime();
+        assertFalse(otherThread(() -> new SimpleRedisLock(redis, "order:2", notifier)
+                .tryLock(100, 10000, TimeUnit.MILLISECONDS)));
+        assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(100));
+        lock.unlock();
+    }
+
+    private static boolean otherThread(java.util.concurrent.Callable<Boolean> task) throws Exception {
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            return es.submit(task).get(5, TimeUnit.SECONDS);
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 只实现锁脚本的redis替身，脚本串行执行，不处理过期
+     */
+    private static class InMemoryLockRedis extends StringRedisTemplate {
+        final Map<String, Map<String, Integer>> locks = new HashMap<>();
+        final AtomicInteger lockCalls = new AtomicInteger();
+        final RedisLockNotifier notifier;
+        final Object lockScript = ReflectionTestUtils.getField(SimpleRedisLock.class, "LOCK_SCRIPT");
+        final Object unlockScript = ReflectionTestUtils.getField(SimpleRedisLock.class, "UNLOCK_SCRIPT");
+
+        InMemoryLockRedis(RedisLockNotifier notifier) {
+            this.notifier = notifier;
+        }
+
+        synchronized int holds(String key) {
+            Map<String, Integer> owners = locks.get(key);
+            return owners == null ? 0 : owners.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            String key = keys.get(0);
+            String owner = (String) args[0];
+            String published = null;
+            Long result;
+            synchronized (this) {
+                Map<String, Integer> owners = locks.get(key);
+                if (script == lockScript) {
+                    lockCalls.incrementAndGet();
+                    if (owners == null || owners.containsKey(owner)) {
+                        locks.computeIfAbsent(key, k -> new HashMap<>()).merge(owner, 1, Integer::sum);
+                        result = -1L;
+                    } else {
+                        result = 60000L;
+                    }
+                } else if (script == unlockScript) {
+                    if (owners == null || !owners.containsKey(owner)) {
+                        result = -1L;
+                    } else if (owners.merge(owner, -1, Integer::sum) > 0) {
+                        result = 0L;
+                    } else {
+                        locks.remove(key);
+                        published = key;
+                        result = 1L;
+                    }
+                } else {
+                    result = owners != null && owners.containsKey(owner) ? 1L : 0L;
+                }
+            }
+            if (published != null) {
+                notifier.onMessage(new DefaultMessage(LOCK_UNLOCK_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                        published.getBytes(StandardCharsets.UTF_8)), null);
+            }
+            return (T) result;
+        }
+    }
+}